@@ -0,0 +1,203 @@
+package amazed;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import amazed.maze.Amazed;
+import amazed.maze.BatchSolver;
+import amazed.solver.PortfolioRecord;
+
+
+public class Batch
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("A-mazed batch: solves all maps in a directory.\n"
+                           + "\n"
+                           + "usage: java " + className + " DIR [SOLVER] [OPTION...]\n"
+                           + "\n"
+                           + " DIR     directory with map files (ending in .map)\n"
+                           + " SOLVER  as for amazed.Main (default: sequential)\n"
+                           + "\n"
+                           + "options:\n"
+                           + " --out=FILE       write one line of results per map to FILE (default: standard output)\n"
+                           + " --shards=N       solve N maps at a time, each on its own pool (default: 1)\n"
+                           + " --parallelism=N  run each shard's solvers on N worker threads\n"
+                           + "                  (default: processors divided by shards)\n"
+                           + " --seed=N         derive node identifiers from seed N (default: random)\n"
+                           + " --wins=FILE      record the winner of the portfolio solver per class of map\n"
+                           + "                  in FILE, and run a solver that keeps winning alone");
+        System.exit(0);
+    }
+
+    private final static String MAP_SUFFIX = ".map";
+    private final static String SEQUENTIAL = "sequential";
+    private final static String PARALLEL = "parallel";
+    private final static String DYNAMIC = "dynamic";
+    private final static String HIERARCHICAL = "hierarchical";
+    private final static String BOUNDED = "bounded";
+    private final static String WEIGHTED = "weighted";
+    private final static String PORTFOLIO = "portfolio";
+    private final static String OPTION_PREFIX = "--";
+    private final static String OUT = "out";
+    private final static String SHARDS = "shards";
+    private final static String PARALLELISM = "parallelism";
+    private final static String SEED = "seed";
+    private final static String WINS = "wins";
+
+    private static String directory;
+    private static Amazed.Strategy strategy = Amazed.Strategy.SEQUENTIAL;
+    private static int parameter = 0;
+    private static String out = null;
+    private static int shards = 1;
+    private static Integer parallelism = null;
+    private static Long seed = null;
+    private static String wins = null;
+
+    // value of a numeric option, which must be at least `min'
+    private static int parseCount(String value, int min)
+    {
+        int count = 0;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        if (count < min)
+            printUsageAndExit();
+        return count;
+    }
+
+    private static void parseOption(String option)
+    {
+        String[] splitOption = option.substring(OPTION_PREFIX.length()).split("=", 2);
+        if (splitOption.length != 2)
+            printUsageAndExit();
+        String name = splitOption[0], value = splitOption[1];
+        if (name.equals(OUT))
+            out = value;
+        else if (name.equals(SHARDS))
+            shards = parseCount(value, 1);
+        else if (name.equals(PARALLELISM))
+            parallelism = parseCount(value, 1);
+        else if (name.equals(SEED)) {
+            try {
+                seed = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+        } else if (name.equals(WINS))
+            wins = value;
+        else
+            printUsageAndExit();
+    }
+
+    private static void parseSolver(String solver)
+    {
+        if (solver.equals(SEQUENTIAL))
+            strategy = Amazed.Strategy.SEQUENTIAL;
+        else if (solver.equals(DYNAMIC))
+            strategy = Amazed.Strategy.DYNAMIC;
+        else if (solver.equals(HIERARCHICAL))
+            strategy = Amazed.Strategy.HIERARCHICAL;
+        else if (solver.equals(BOUNDED))
+            strategy = Amazed.Strategy.BOUNDED;
+        else if (solver.equals(WEIGHTED))
+            strategy = Amazed.Strategy.WEIGHTED;
+        else if (solver.equals(PORTFOLIO))
+            strategy = Amazed.Strategy.PORTFOLIO;
+        else {
+            String[] splitSolver = solver.split("-");
+            if (splitSolver.length != 2)
+                printUsageAndExit();
+            if (splitSolver[0].equals(PARALLEL))
+                strategy = Amazed.Strategy.PARALLEL;
+            else if (splitSolver[0].equals(HIERARCHICAL))
+                strategy = Amazed.Strategy.HIERARCHICAL;
+            else if (splitSolver[0].equals(WEIGHTED))
+                strategy = Amazed.Strategy.WEIGHTED;
+            else if (splitSolver[0].equals(PORTFOLIO))
+                strategy = Amazed.Strategy.PORTFOLIO;
+            else
+                printUsageAndExit();
+            parameter = parseCount(splitSolver[1], 0);
+        }
+    }
+
+    private static void parseArguments(String[] allArgs)
+    {
+        List<String> positional = new ArrayList<>();
+        for (String arg: allArgs) {
+            if (arg.startsWith(OPTION_PREFIX))
+                parseOption(arg);
+            else
+                positional.add(arg);
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length >= 1 && args.length <= 2) {
+            directory = args[0];
+            if (args.length == 2)
+                parseSolver(args[1]);
+        } else
+            printUsageAndExit();
+    }
+
+    public static void main(String[] args)
+    throws InterruptedException
+    {
+        parseArguments(args);
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(MAP_SUFFIX));
+        if (files == null) {
+            System.err.println("Error: cannot list directory " + directory);
+            System.exit(1);
+        }
+        List<String> maps = new ArrayList<>();
+        for (File file: files)
+            maps.add(file.getPath());
+        int threads = parallelism != null ? parallelism
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / shards);
+        BatchSolver batch = new BatchSolver(strategy, parameter,
+                                            seed == null ? new Random().nextLong() : seed);
+        PortfolioRecord record = null;
+        if (wins != null) {
+            try {
+                record = PortfolioRecord.read(wins);
+            } catch (IOException e) {
+                System.err.println("Error: cannot read portfolio record " + wins + ": "
+                                   + e.getMessage());
+                System.exit(1);
+            }
+            batch.usePortfolioRecord(record);
+        }
+        long start = System.currentTimeMillis();
+        int found = 0;
+        try (Writer writer = out == null
+                 ? new BufferedWriter(new OutputStreamWriter(System.out))
+                 : new BufferedWriter(new FileWriter(out))) {
+            found = batch.solve(maps, shards, threads, writer);
+        } catch (IOException e) {
+            System.err.println("Error: cannot write results: " + e.getMessage());
+            System.exit(1);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (record != null) {
+            try {
+                record.write(wins);
+            } catch (IOException e) {
+                System.err.println("Error: cannot write portfolio record " + wins + ": "
+                                   + e.getMessage());
+            }
+        }
+        System.err.println("Found paths in " + found + " of " + maps.size() + " maps in "
+                           + elapsed + " ms on " + shards + " shards");
+    }
+}
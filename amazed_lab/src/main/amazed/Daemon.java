@@ -0,0 +1,236 @@
+package amazed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import amazed.maze.Amazed;
+import amazed.maze.SolveServer;
+
+
+public class Daemon
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("A-mazed daemon: keeps mazes resident and solves them on request.\n"
+                           + "\n"
+                           + "usage: java " + className + " serve [OPTION...]\n"
+                           + "       java " + className + " query MAP [SOLVER] [OPTION...]\n"
+                           + "\n"
+                           + " serve   listen for requests until killed\n"
+                           + " query   ask a running daemon to solve MAP, and print the path length\n"
+                           + "         and the round-trip time\n"
+                           + " MAP     filename with map file, as seen by the daemon\n"
+                           + " SOLVER  as for amazed.Main (default: sequential)\n"
+                           + "\n"
+                           + "options:\n"
+                           + " --port=N         listen on, or connect to, localhost port N (default: 7341)\n"
+                           + " --socket=FILE    use Unix-domain socket FILE instead of a port\n"
+                           + " --maps=N         keep at most N mazes resident (default: 16)\n"
+                           + " --threads=N      serve N connections at a time (default: 4)\n"
+                           + " --queue=N        let N connections wait before refusing more (default: 16)\n"
+                           + " --parallelism=N  parse maps on N worker threads, and run the solvers of each\n"
+                           + "                  connection on N/threads of them (default: one per processor)\n"
+                           + " --repeat=N       send the query N times on one connection (default: 1)");
+        System.exit(0);
+    }
+
+    private final static String SERVE = "serve";
+    private final static String QUERY = "query";
+    private final static String SEQUENTIAL = "sequential";
+    private final static String PARALLEL = "parallel";
+    private final static String DYNAMIC = "dynamic";
+    private final static String HIERARCHICAL = "hierarchical";
+    private final static String BOUNDED = "bounded";
+    private final static String WEIGHTED = "weighted";
+    private final static String PORTFOLIO = "portfolio";
+    private final static String OPTION_PREFIX = "--";
+    private final static String PORT = "port";
+    private final static String SOCKET = "socket";
+    private final static String MAPS = "maps";
+    private final static String THREADS = "threads";
+    private final static String QUEUE = "queue";
+    private final static String PARALLELISM = "parallelism";
+    private final static String REPEAT = "repeat";
+
+    private static boolean serve;
+    private static String map;
+    private static Amazed.Strategy strategy = Amazed.Strategy.SEQUENTIAL;
+    private static int parameter = 0;
+    private static int port = 7341;
+    private static String socket = null;
+    private static int maps = 16;
+    private static int threads = 4;
+    private static int queue = 16;
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static int repeat = 1;
+
+    // value of a numeric option, which must be at least `min'
+    private static int parseCount(String value, int min)
+    {
+        int count = 0;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        if (count < min)
+            printUsageAndExit();
+        return count;
+    }
+
+    private static void parseOption(String option)
+    {
+        String[] splitOption = option.substring(OPTION_PREFIX.length()).split("=", 2);
+        if (splitOption.length != 2)
+            printUsageAndExit();
+        String name = splitOption[0], value = splitOption[1];
+        if (name.equals(PORT))
+            port = parseCount(value, 0);
+        else if (name.equals(SOCKET))
+            socket = value;
+        else if (name.equals(MAPS))
+            maps = parseCount(value, 1);
+        else if (name.equals(THREADS))
+            threads = parseCount(value, 1);
+        else if (name.equals(QUEUE))
+            queue = parseCount(value, 1);
+        else if (name.equals(PARALLELISM))
+            parallelism = parseCount(value, 1);
+        else if (name.equals(REPEAT))
+            repeat = parseCount(value, 1);
+        else
+            printUsageAndExit();
+    }
+
+    private static void parseSolver(String solver)
+    {
+        if (solver.equals(SEQUENTIAL))
+            strategy = Amazed.Strategy.SEQUENTIAL;
+        else if (solver.equals(DYNAMIC))
+            strategy = Amazed.Strategy.DYNAMIC;
+        else if (solver.equals(HIERARCHICAL))
+            strategy = Amazed.Strategy.HIERARCHICAL;
+        else if (solver.equals(BOUNDED))
+            strategy = Amazed.Strategy.BOUNDED;
+        else if (solver.equals(WEIGHTED))
+            strategy = Amazed.Strategy.WEIGHTED;
+        else if (solver.equals(PORTFOLIO))
+            strategy = Amazed.Strategy.PORTFOLIO;
+        else {
+            String[] splitSolver = solver.split("-");
+            if (splitSolver.length != 2)
+                printUsageAndExit();
+            if (splitSolver[0].equals(PARALLEL))
+                strategy = Amazed.Strategy.PARALLEL;
+            else if (splitSolver[0].equals(HIERARCHICAL))
+                strategy = Amazed.Strategy.HIERARCHICAL;
+            else if (splitSolver[0].equals(WEIGHTED))
+                strategy = Amazed.Strategy.WEIGHTED;
+            else if (splitSolver[0].equals(PORTFOLIO))
+                strategy = Amazed.Strategy.PORTFOLIO;
+            else
+                printUsageAndExit();
+            parameter = parseCount(splitSolver[1], 0);
+        }
+    }
+
+    private static void parseArguments(String[] allArgs)
+    {
+        List<String> positional = new ArrayList<>();
+        for (String arg: allArgs) {
+            if (arg.startsWith(OPTION_PREFIX))
+                parseOption(arg);
+            else
+                positional.add(arg);
+        }
+        String[] args = positional.toArray(new String[0]);
+        if (args.length == 1 && args[0].equals(SERVE))
+            serve = true;
+        else if (args.length >= 2 && args.length <= 3 && args[0].equals(QUERY)) {
+            map = args[1];
+            if (args.length == 3)
+                parseSolver(args[2]);
+        } else
+            printUsageAndExit();
+    }
+
+    private static SocketAddress address()
+    {
+        if (socket != null)
+            return UnixDomainSocketAddress.of(socket);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private static void serve()
+    throws IOException, InterruptedException
+    {
+        if (socket != null)
+            Files.deleteIfExists(Path.of(socket));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (SolveServer server = new SolveServer(address(), maps, threads, queue, pool)) {
+            System.out.println("Serving on " + address());
+            server.serve();
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void query()
+    throws IOException
+    {
+        SocketAddress address = address();
+        try (SocketChannel channel = address instanceof UnixDomainSocketAddress
+                 ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                 : SocketChannel.open()) {
+            channel.connect(address);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+            for (int k = 0; k < repeat; k++) {
+                long start = System.nanoTime();
+                int[] path = SolveServer.request(out, in, map, strategy, parameter);
+                long stop = System.nanoTime();
+                if (path.length == 0)
+                    System.out.print("Goal not found");
+                else
+                    System.out.print("Path of " + path.length + " nodes");
+                System.out.println(", round trip " + (stop - start) / 1000 + " us");
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    throws InterruptedException
+    {
+        parseArguments(args);
+        try {
+            if (serve)
+                serve();
+            else
+                query();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
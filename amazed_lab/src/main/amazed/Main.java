@@ -1,8 +1,15 @@
 package amazed;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
 import amazed.maze.Amazed;
+import amazed.maze.OffHeapArray;
 
 
 public class Main
@@ -12,35 +19,209 @@ public class Main
         String className = MethodHandles.lookup().lookupClass().getName();
         System.out.println("A-mazed: finds and displays paths to goal in a maze.\n"
                            + "\n"
-                           + "usage: java " + className + " MAP [SOLVER] [PERIOD]\n"
+                           + "usage: java " + className + " MAP [SOLVER] [PERIOD] [OPTION...]\n"
                            + "\n"
                            + " MAP    filename with map file\n"
-                           + " SOLVER 'sequential' or 'parallel-N' solver, forking after N steps\n"
-                           + " PERIOD time in millisecond between steps (0: don't animate)");
+                           + " SOLVER 'sequential', 'dynamic' (incremental shortest path),\n"
+                           + "        'parallel-N' solver, whose workers share work after N steps,\n"
+                           + "        'hierarchical[-N]' solver, with clusters of NxN cells,\n"
+                           + "        'bounded' solver, within the memory given by --memory,\n"
+                           + "        'weighted[-N]' least-cost solver, with buckets of width N, or\n"
+                           + "        'portfolio[-N]' race of the sequential, parallel-N, and weighted\n"
+                           + "        solvers, which returns the first path found\n"
+                           + " PERIOD time in millisecond between steps (0: don't animate)\n"
+                           + "\n"
+                           + "options:\n"
+                           + " --trace=FILE  record all moves of the solver into trace FILE\n"
+                           + " --seed=N      derive node identifiers from seed N (default: random)\n"
+                           + " --cache=DIR   reuse solutions stored in cache directory DIR\n"
+                           + " --cache-mb=N  keep the cache within N megabytes (default: 64)\n"
+                           + " --parallelism=N  run solvers on N worker threads (default: one per processor)\n"
+                           + " --async=BOOL  schedule forked tasks first-in-first-out (default: false)\n"
+                           + " --workers=NAME  name worker threads NAME-0, NAME-1, ... (default: amazed-worker)\n"
+                           + " --memory=N    limit the bounded solver to N megabytes (default: half the heap)\n"
+                           + " --path-out=FILE  write the path to FILE, streaming it from sequential and\n"
+                           + "               parallel solvers as it is reconstructed\n"
+                           + " --index=BOOL  save the parsed map to MAP.idx, which later runs load instead\n"
+                           + "               of parsing MAP while MAP is unchanged (default: false)\n"
+                           + " --wins=FILE   record the winner of the portfolio solver per class of map\n"
+                           + "               in FILE, and run a solver that keeps winning alone\n"
+                           + " --optimize=BOOL  remove cycles and detours from the path found\n"
+                           + "               (default: false)\n"
+                           + " --order=NAME  explore neighbors in sequential and parallel solvers in order\n"
+                           + "               'nearest' (closest to the nearest goal first) or 'toward'\n"
+                           + "               (towards the goals first) (default: as Maze.neighbors)\n"
+                           + " --off-heap=N  keep the grid, and the search state of the parallel and\n"
+                           + "               weighted solvers, off the Java heap if it takes N megabytes\n"
+                           + "               or more (default: always on the heap)\n"
+                           + " --off-heap-dir=DIR  keep off-heap arrays in temporary files mapped from\n"
+                           + "               DIR (default: in direct memory, see -XX:MaxDirectMemorySize)");
         System.exit(0);
     }
 
     private final static String SEQUENTIAL = "sequential";
     private final static String PARALLEL = "parallel";
+    private final static String DYNAMIC = "dynamic";
+    private final static String HIERARCHICAL = "hierarchical";
+    private final static String BOUNDED = "bounded";
+    private final static String WEIGHTED = "weighted";
+    private final static String PORTFOLIO = "portfolio";
+    private final static String OPTION_PREFIX = "--";
+    private final static String TRACE = "trace";
+    private final static String SEED = "seed";
+    private final static String CACHE = "cache";
+    private final static String CACHE_MB = "cache-mb";
+    private final static String PARALLELISM = "parallelism";
+    private final static String ASYNC = "async";
+    private final static String WORKERS = "workers";
+    private final static String MEMORY = "memory";
+    private final static String PATH_OUT = "path-out";
+    private final static String INDEX = "index";
+    private final static String WINS = "wins";
+    private final static String OPTIMIZE = "optimize";
+    private final static String ORDER = "order";
+    private final static String NEAREST = "nearest";
+    private final static String TOWARD = "toward";
+    private final static String OFF_HEAP = "off-heap";
+    private final static String OFF_HEAP_DIR = "off-heap-dir";
 
     private static String map;
-    private static boolean sequential = true;
+    private static Amazed.Strategy strategy = Amazed.Strategy.SEQUENTIAL;
     private static int forkAfter = 0;
     private static int period = 500;
+    private static String trace = null;
+    private static Long seed = null;
+    private static String cache = null;
+    private static long cacheMegabytes = 64;
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static boolean async = false;
+    private static String workers = "amazed-worker";
+    private static Long memoryMegabytes = null;
+    private static String pathOut = null;
+    private static boolean index = false;
+    private static String wins = null;
+    private static boolean optimize = false;
+    private static Amazed.Ordering ordering = Amazed.Ordering.DEFAULT;
+    private static Long offHeapMegabytes = null;
+    private static String offHeapDirectory = null;
+
+    private static void parseOption(String option)
+    {
+        String[] splitOption = option.substring(OPTION_PREFIX.length()).split("=", 2);
+        if (splitOption.length != 2)
+            printUsageAndExit();
+        String name = splitOption[0], value = splitOption[1];
+        if (name.equals(TRACE))
+            trace = value;
+        else if (name.equals(SEED)) {
+            try {
+                seed = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+        } else if (name.equals(CACHE))
+            cache = value;
+        else if (name.equals(CACHE_MB)) {
+            try {
+                cacheMegabytes = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+        } else if (name.equals(PARALLELISM)) {
+            try {
+                parallelism = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+            if (parallelism < 1)
+                printUsageAndExit();
+        } else if (name.equals(ASYNC))
+            async = Boolean.parseBoolean(value);
+        else if (name.equals(WORKERS))
+            workers = value;
+        else if (name.equals(MEMORY)) {
+            try {
+                memoryMegabytes = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+        } else if (name.equals(PATH_OUT))
+            pathOut = value;
+        else if (name.equals(INDEX))
+            index = Boolean.parseBoolean(value);
+        else if (name.equals(WINS))
+            wins = value;
+        else if (name.equals(OPTIMIZE))
+            optimize = Boolean.parseBoolean(value);
+        else if (name.equals(OFF_HEAP)) {
+            try {
+                offHeapMegabytes = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+        } else if (name.equals(ORDER)) {
+            if (value.equals(NEAREST))
+                ordering = Amazed.Ordering.NEAREST_GOAL;
+            else if (value.equals(TOWARD))
+                ordering = Amazed.Ordering.TOWARD_GOALS;
+            else
+                printUsageAndExit();
+        } else if (name.equals(OFF_HEAP_DIR))
+            offHeapDirectory = value;
+        else
+            printUsageAndExit();
+    }
+
+    // pool configured by the options, with named worker threads
+    private static ForkJoinPool createPool()
+    {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(workers + "-" + thread.getPoolIndex());
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, null, async);
+    }
 
-    private static void parseArguments(String[] args)
+    private static void parseArguments(String[] allArgs)
     {
+        List<String> positional = new ArrayList<>();
+        for (String arg: allArgs) {
+            if (arg.startsWith(OPTION_PREFIX))
+                parseOption(arg);
+            else
+                positional.add(arg);
+        }
+        String[] args = positional.toArray(new String[0]);
         if (args.length >= 1) {
             map = args[0];
             if (args.length >= 2) {
                 String solver = args[1];
                 if (solver.equals(SEQUENTIAL))
-                    sequential = true;
+                    strategy = Amazed.Strategy.SEQUENTIAL;
+                else if (solver.equals(DYNAMIC))
+                    strategy = Amazed.Strategy.DYNAMIC;
+                else if (solver.equals(HIERARCHICAL))
+                    strategy = Amazed.Strategy.HIERARCHICAL;
+                else if (solver.equals(BOUNDED))
+                    strategy = Amazed.Strategy.BOUNDED;
+                else if (solver.equals(WEIGHTED))
+                    strategy = Amazed.Strategy.WEIGHTED;
+                else if (solver.equals(PORTFOLIO))
+                    strategy = Amazed.Strategy.PORTFOLIO;
                 else {
-                    sequential = false;
                     String[] splitSolver = solver.split("-");
                     if (splitSolver.length == 2) {
-                        if (splitSolver[0].equals(PARALLEL)) {
+                        if (splitSolver[0].equals(PARALLEL) || splitSolver[0].equals(HIERARCHICAL)
+                            || splitSolver[0].equals(WEIGHTED) || splitSolver[0].equals(PORTFOLIO)) {
+                            strategy = splitSolver[0].equals(PARALLEL)
+                                ? Amazed.Strategy.PARALLEL
+                                : splitSolver[0].equals(HIERARCHICAL)
+                                ? Amazed.Strategy.HIERARCHICAL
+                                : splitSolver[0].equals(WEIGHTED)
+                                ? Amazed.Strategy.WEIGHTED
+                                : Amazed.Strategy.PORTFOLIO;
                             try {
                                 forkAfter = Integer.parseInt(splitSolver[1]);
                             } catch (NumberFormatException e) {
@@ -67,13 +248,39 @@ public class Main
     throws InterruptedException
     {
         parseArguments(args);
-        Amazed amazed = new Amazed(map, sequential, forkAfter, period);
+        if (offHeapMegabytes != null)
+            OffHeapArray.configure(offHeapMegabytes << 20, offHeapDirectory);
+        else if (offHeapDirectory != null)
+            OffHeapArray.configure(0, offHeapDirectory);
+        ForkJoinPool pool = createPool();
+        Amazed amazed = new Amazed(map, strategy, forkAfter, period,
+                                   seed == null ? new Random().nextLong() : seed, pool);
+        if (index)
+            amazed.writeIndex();
+        if (memoryMegabytes != null)
+            amazed.setMemoryBudget(memoryMegabytes << 20);
+        if (trace != null)
+            amazed.recordTrace(trace);
+        if (cache != null)
+            amazed.useCache(cache, cacheMegabytes << 20);
+        if (pathOut != null)
+            amazed.writePath(pathOut);
+        if (wins != null)
+            amazed.usePortfolioRecord(wins);
+        if (optimize)
+            amazed.optimizePath();
+        if (ordering != Amazed.Ordering.DEFAULT)
+            amazed.orderNeighbors(ordering);
         long start = System.currentTimeMillis();
         amazed.solve();
         long stop = System.currentTimeMillis();
         long elapsed = stop - start;
         System.out.println("Solving time: " + elapsed + " ms");
-        Thread.sleep(1000);
+        // leave the final state of the animation on screen for a while
+        if (period >= 0)
+            Thread.sleep(1000);
         amazed.showSolution();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
     }
 }
@@ -0,0 +1,68 @@
+package amazed;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+import amazed.maze.TraceReplay;
+
+
+public class Replay
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("A-mazed replay: replays or summarizes a recorded search trace.\n"
+                           + "\n"
+                           + "usage: java " + className + " MAP TRACE [SPEED|stats]\n"
+                           + "\n"
+                           + " MAP    filename with map file the trace was recorded on\n"
+                           + " TRACE  filename with trace recorded with option --trace\n"
+                           + " SPEED  replay speed relative to the recorded run (default: 0.001)\n"
+                           + " stats  print per-player statistics and heatmaps instead of replaying");
+        System.exit(0);
+    }
+
+    private final static String STATS = "stats";
+
+    private static String map;
+    private static String trace;
+    private static boolean stats = false;
+    private static double speed = 0.001;
+
+    private static void parseArguments(String[] args)
+    {
+        if (args.length >= 2) {
+            map = args[0];
+            trace = args[1];
+            if (args.length >= 3) {
+                if (args[2].equals(STATS))
+                    stats = true;
+                else {
+                    try {
+                        speed = Double.parseDouble(args[2]);
+                    } catch (NumberFormatException e) {
+                        printUsageAndExit();
+                    }
+                }
+            }
+        } else
+            printUsageAndExit();
+    }
+
+    public static void main(String[] args)
+    throws InterruptedException
+    {
+        parseArguments(args);
+        TraceReplay replay = null;
+        try {
+            replay = new TraceReplay(map, trace);
+        } catch (IOException e) {
+            System.err.println("Error: cannot read trace file " + trace + ": " + e.getMessage());
+            System.exit(1);
+        }
+        if (stats)
+            replay.printStats();
+        else
+            replay.replay(speed);
+    }
+}
@@ -1,36 +1,130 @@
 package amazed.maze;
 
-import java.awt.EventQueue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveTask;
 
 import amazed.solver.SequentialSolver;
 import amazed.solver.ForkJoinSolver;
+import amazed.solver.DynamicSolver;
+import amazed.solver.HierarchicalSolver;
+import amazed.solver.BoundedMemorySolver;
+import amazed.solver.DeltaSteppingSolver;
+import amazed.solver.PortfolioRecord;
+import amazed.solver.PortfolioSolver;
+import amazed.solver.PathOptimizer;
+import amazed.solver.NeighborOrder;
 
 /**
  * <code>Amazed</code> is a simple application class that applies a
  * solver to a maze.
  * <p>
  * This class supports sequential solvers of class
- * <code>SequentialSolver</code> and fork/join solvers of class
- * <code>ForkJoinSolver</code>. It runs both using the common pool of
- * <code>java.util.concurrent.ForkJoinPool</code>; thus, the solvers
+ * <code>SequentialSolver</code>, fork/join solvers of class
+ * <code>ForkJoinSolver</code>, incremental solvers of class
+ * <code>DynamicSolver</code>, hierarchical solvers of class
+ * <code>HierarchicalSolver</code>, bounded-memory solvers of class
+ * <code>BoundedMemorySolver</code>, least-cost solvers of class
+ * <code>DeltaSteppingSolver</code>, and portfolios of class
+ * <code>PortfolioSolver</code>, which race several of the others, as
+ * selected by a <code>Strategy</code>.
+ * It runs all of them using a
+ * <code>java.util.concurrent.ForkJoinPool</code>, which is the common
+ * pool unless another pool is given when creating the instance; thus,
+ * the solvers
  * must be a subtype of
  * <code>RecursiveTask&lt;List&lt;Integer&gt;&gt;</code>. After creating an
  * instance from a map file, the solving process is started by calling
  * method <code>solve</code>. After <code>solve</code> terminates, the
  * solution can be displayed by calling method
- * <code>showSolution</code>.
+ * <code>showSolution</code>. Calling <code>recordTrace</code> before
+ * <code>solve</code> records all moves of the solver's players into a
+ * trace file, which can be inspected with <code>TraceReplay</code>.
+ * Calling <code>useCache</code> before <code>solve</code> looks up
+ * the solution in a persistent cache keyed by the content of the map
+ * file and the kind of solver, and only runs the solver if it is not
+ * there; hierarchical
+ * solvers also keep their precomputed abstraction of the map there.
+ * Calling <code>writeIndex</code> saves the parsed map next to the
+ * map file, so that later runs on the same map skip parsing.
+ * Calling <code>writePath</code> before <code>solve</code> writes the
+ * solution to a file with a <code>PathWriter</code>; sequential and
+ * fork/join solvers then stream the path to the file as they
+ * reconstruct it, without keeping it in memory. Calling
+ * <code>usePortfolioRecord</code> before <code>solve</code> records
+ * which solver of a portfolio wins, and lets the portfolio run the
+ * usual winner alone on maps like this one. Calling
+ * <code>optimizePath</code> before <code>solve</code> removes cycles
+ * and detours from the path found, with a <code>PathOptimizer</code>.
+ * Calling <code>orderNeighbors</code> before <code>solve</code> sets
+ * the order in which sequential and fork/join solvers explore
+ * neighbors; these solvers report how many nodes they explored.
  *
  * @author  Carlo A. Furia
  */
 
 public class Amazed
 {
+    /**
+     * The kinds of solver that can be applied to a maze.
+     */
+    public enum Strategy
+    {
+        /** depth-first search with <code>SequentialSolver</code> */
+        SEQUENTIAL,
+        /** parallel depth-first search with <code>ForkJoinSolver</code> */
+        PARALLEL,
+        /** incremental shortest-path search with <code>DynamicSolver</code> */
+        DYNAMIC,
+        /** hierarchical search with <code>HierarchicalSolver</code> */
+        HIERARCHICAL,
+        /** search within a memory budget with <code>BoundedMemorySolver</code> */
+        BOUNDED,
+        /** parallel least-cost search with <code>DeltaSteppingSolver</code> */
+        WEIGHTED,
+        /**
+         * race of sequential, parallel, and least-cost search with
+         * <code>PortfolioSolver</code>
+         */
+        PORTFOLIO
+    }
+
+    /**
+     * The orders in which depth-first solvers can explore neighbors.
+     */
+    public enum Ordering
+    {
+        /** the order of <code>Maze.neighbors</code> */
+        DEFAULT,
+        /** closest to the nearest goal first, as in <code>NeighborOrder.nearestGoal</code> */
+        NEAREST_GOAL,
+        /** towards the goals first, as in <code>NeighborOrder.towardGoals</code> */
+        TOWARD_GOALS
+    }
+
     private Maze maze;
     private RecursiveTask<List<Integer>> solver;
     private List<Integer> path;
+    private TraceRecorder recorder;
+    private String map;
+    private SolutionCache cache;
+    // kind of solver, as named in the cache
+    private String solverKind;
+    private String pathFile;
+    private ForkJoinPool pool;
+    private PortfolioRecord record;
+    private String recordFile;
+    private boolean optimize = false;
 
     /**
      * Creates a maze reading from map file <code>map</code>.
@@ -40,9 +134,9 @@ public class Amazed
      *                         <code>SequentialSolver</code> to search the maze; otherwise it
      *                         uses <code>ForkJoinSolver</code>
      * @param forkAfter        the number of steps (visited nodes) after
-     *                         which a parallel task is forked; this value
-     *                         is passed to the instance of the solver as
-     *                         described in
+     *                         which a parallel worker shares its work with
+     *                         the others; this value is passed to the
+     *                         instance of the solver as described in
      *                         {@link amazed.solver.ForkJoinSolver#ForkJoinSolver(Maze, int)}
      * @param animationDelay   milliseconds of pause between a step and
      *                         the next one in the animation of the
@@ -55,36 +149,422 @@ public class Amazed
      */
     public Amazed(String map, boolean sequentialSolver, int forkAfter, int animationDelay)
     {
-        maze = new Maze(map);
+        this(map, sequentialSolver, forkAfter, animationDelay, new Random().nextLong());
+    }
+
+    /**
+     * Creates a maze reading from map file <code>map</code>, whose
+     * node identifiers are determined by <code>seed</code>. Runs with
+     * the same map and seed see the same identifiers, so their
+     * results can be compared or reused.
+     *
+     * @param map              the name of the map file describing the maze to be searched
+     * @param sequentialSolver as in {@link #Amazed(String, boolean, int, int)}
+     * @param forkAfter        as in {@link #Amazed(String, boolean, int, int)}
+     * @param animationDelay   as in {@link #Amazed(String, boolean, int, int)}
+     * @param seed             the seed that determines the node identifiers
+     */
+    public Amazed(String map, boolean sequentialSolver, int forkAfter, int animationDelay, long seed)
+    {
+        this(map, sequentialSolver ? Strategy.SEQUENTIAL : Strategy.PARALLEL,
+             forkAfter, animationDelay, seed);
+    }
+
+    /**
+     * Creates a maze reading from map file <code>map</code>, whose
+     * node identifiers are determined by <code>seed</code>, and
+     * searched by a solver of kind <code>strategy</code>.
+     *
+     * @param map              the name of the map file describing the maze to be searched
+     * @param strategy         the kind of solver used to search the maze
+     * @param forkAfter        as in {@link #Amazed(String, boolean, int, int)}
+     *                         for <code>Strategy.PARALLEL</code>; the side
+     *                         of clusters for <code>Strategy.HIERARCHICAL</code>,
+     *                         or the width of buckets for
+     *                         <code>Strategy.WEIGHTED</code>, or 0 for the
+     *                         default; as for <code>Strategy.PARALLEL</code>
+     *                         for the parallel solver of
+     *                         <code>Strategy.PORTFOLIO</code>; unused otherwise
+     * @param animationDelay   as in {@link #Amazed(String, boolean, int, int)}
+     * @param seed             the seed that determines the node identifiers
+     */
+    public Amazed(String map, Strategy strategy, int forkAfter, int animationDelay, long seed)
+    {
+        this(map, strategy, forkAfter, animationDelay, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a maze reading from map file <code>map</code>, whose
+     * node identifiers are determined by <code>seed</code>, and
+     * searched by a solver of kind <code>strategy</code> running in
+     * <code>pool</code>. The pool is also used to read the map, and
+     * remains owned by the caller: it can be shared by several
+     * instances, and must be shut down by the caller when no longer
+     * needed.
+     *
+     * @param map              the name of the map file describing the maze to be searched
+     * @param strategy         as in {@link #Amazed(String, Strategy, int, int, long)}
+     * @param forkAfter        as in {@link #Amazed(String, Strategy, int, int, long)}
+     * @param animationDelay   as in {@link #Amazed(String, boolean, int, int)}
+     * @param seed             the seed that determines the node identifiers
+     * @param pool             the pool that runs the solver
+     */
+    public Amazed(String map, Strategy strategy, int forkAfter, int animationDelay, long seed,
+                  ForkJoinPool pool)
+    {
+        this.map = map;
+        this.pool = pool;
+        maze = new Maze(map, seed, pool);
         if (animationDelay >= 0) {
-            EventQueue.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    MazeFrame ex = new MazeFrame(maze);
-                    ex.setVisible(true);
-                }
-            });
+            MazeFrame.open(maze);
         }
         maze.setDelay(animationDelay);
-        if (sequentialSolver)
-            solver = new SequentialSolver(maze);
-        else
-            solver = new ForkJoinSolver(maze, forkAfter);
+        solver = newSolver(maze, strategy, forkAfter);
+        // least-cost paths depend on the bucket width; other kinds
+        // of solver find paths that are as good for any parameter
+        solverKind = strategy.name().toLowerCase()
+            + (strategy == Strategy.WEIGHTED ? "-" + forkAfter : "");
+    }
+
+    // a solver of kind strategy for maze; parameter is forkAfter, the
+    // cluster size or the bucket width, as in the constructor
+    static RecursiveTask<List<Integer>> newSolver(Maze maze, Strategy strategy, int parameter)
+    {
+        switch (strategy) {
+        case PARALLEL:
+            return new ForkJoinSolver(maze, parameter);
+        case DYNAMIC:
+            return new DynamicSolver(maze);
+        case HIERARCHICAL:
+            return parameter > 0
+                ? new HierarchicalSolver(maze, parameter)
+                : new HierarchicalSolver(maze);
+        case BOUNDED:
+            return new BoundedMemorySolver(maze);
+        case WEIGHTED:
+            return parameter > 0
+                ? new DeltaSteppingSolver(maze, parameter)
+                : new DeltaSteppingSolver(maze);
+        case PORTFOLIO:
+            PortfolioSolver portfolio = new PortfolioSolver(maze);
+            // depth-first search suits corridors, and one thread;
+            // parallel and breadth-first search suit open rooms
+            portfolio.add(portfolioName(Strategy.SEQUENTIAL), new SequentialSolver(maze), 1);
+            portfolio.add(portfolioName(Strategy.PARALLEL),
+                          new ForkJoinSolver(maze, Math.max(1, parameter)), 2);
+            portfolio.add(portfolioName(Strategy.WEIGHTED), new DeltaSteppingSolver(maze), 1);
+            return portfolio;
+        default:
+            return new SequentialSolver(maze);
+        }
+    }
+
+    // name of the solver of kind strategy in a portfolio
+    private static String portfolioName(Strategy strategy)
+    {
+        return strategy.name().toLowerCase();
+    }
+
+    /**
+     * Limits the memory used by a solver of kind
+     * <code>Strategy.BOUNDED</code>; it has no effect on other kinds
+     * of solver. By default, the limit is half of the maximum heap.
+     *
+     * @param bytes   the memory budget of the solver, in bytes
+     */
+    public void setMemoryBudget(long bytes)
+    {
+        if (solver instanceof BoundedMemorySolver)
+            solver = new BoundedMemorySolver(maze, bytes);
+    }
+
+    /**
+     * Reads the winners of earlier races from record file
+     * <code>filename</code>, if it exists, for a solver of kind
+     * <code>Strategy.PORTFOLIO</code>, and writes the winner of the
+     * next call to <code>solve</code> back to it; it has no effect
+     * on other kinds of solver.
+     *
+     * @param filename   the name of the record file
+     */
+    public void usePortfolioRecord(String filename)
+    {
+        if (!(solver instanceof PortfolioSolver))
+            return;
+        try {
+            record = PortfolioRecord.read(filename);
+        } catch (IOException e) {
+            System.err.println("Error: cannot read portfolio record " + filename + ": "
+                               + e.getMessage());
+            record = new PortfolioRecord();
+        }
+        recordFile = filename;
+        ((PortfolioSolver) solver).useRecord(record);
+    }
+
+    /**
+     * Records all moves of players during the next call to
+     * <code>solve</code> into trace file <code>trace</code>.
+     *
+     * @param trace   the name of the trace file to be written
+     */
+    public void recordTrace(String trace)
+    {
+        try {
+            recorder = new TraceRecorder(trace, maze.getBoard().getRows(), maze.getBoard().getCols());
+        } catch (IOException e) {
+            System.err.println("Error: cannot create trace file " + trace);
+            System.exit(1);
+        }
+        maze.setRecorder(recorder);
+    }
+
+    /**
+     * Saves the grid of the map, as read by this instance, into a
+     * sidecar index next to the map file. Later instances created
+     * from the same, unchanged, map file load the index instead of
+     * parsing the map. Must be called before <code>solve</code>.
+     */
+    public void writeIndex()
+    {
+        try {
+            maze.getBoard().writeIndex(map);
+        } catch (IOException e) {
+            System.err.println("Error: cannot write index of map " + map + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up solutions in, and stores them into, a persistent cache
+     * in directory <code>directory</code> during the next call to
+     * <code>solve</code>.
+     *
+     * @param directory   the name of the cache directory, which is
+     *                    created if it does not exist
+     * @param maxBytes    the maximum size of the cache; least recently
+     *                    used solutions are deleted to stay within it
+     */
+    public void useCache(String directory, long maxBytes)
+    {
+        cache = new SolutionCache(directory, maxBytes);
+    }
+
+    /**
+     * Writes the solution found by the next call to <code>solve</code>
+     * to file <code>filename</code>, in the format of
+     * <code>PathWriter</code>. Solvers of kind
+     * <code>Strategy.SEQUENTIAL</code> and <code>Strategy.PARALLEL</code>
+     * stream the path to the file as they reconstruct it, so the
+     * path is not kept in memory: it is validated as it is written,
+     * but <code>showSolution</code> does not mark it, and it is not
+     * stored in the cache.
+     *
+     * @param filename   the name of the path file to be written
+     */
+    public void writePath(String filename)
+    {
+        pathFile = filename;
+    }
+
+    /**
+     * Shortens the path found by the next call to <code>solve</code>,
+     * or taken from the cache, with a <code>PathOptimizer</code>,
+     * before it is validated, displayed, or saved. Solvers then return
+     * the path instead of streaming it to the file given to
+     * <code>writePath</code>.
+     */
+    public void optimizePath()
+    {
+        optimize = true;
+    }
+
+    /**
+     * Sets the order in which a solver of kind
+     * <code>Strategy.SEQUENTIAL</code> or <code>Strategy.PARALLEL</code>
+     * explores the neighbors of a node; it has no effect on other
+     * kinds of solver. Orders other than <code>DEFAULT</code> locate
+     * the goals by scanning the whole map.
+     *
+     * @param ordering   the order of exploration
+     */
+    public void orderNeighbors(Ordering ordering)
+    {
+        if (!(solver instanceof SequentialSolver))
+            return;
+        NeighborOrder order = null;
+        if (ordering == Ordering.NEAREST_GOAL)
+            order = NeighborOrder.nearestGoal(maze);
+        else if (ordering == Ordering.TOWARD_GOALS)
+            order = NeighborOrder.towardGoals(maze);
+        ((SequentialSolver) solver).setNeighborOrder(order);
     }
 
     /**
      * Runs the solver on the maze, waits for termination, and prints
-     * to screen the outcome of the search.
+     * to screen the outcome of the search. If a cache is used and
+     * has a valid solution for the map, the solver is not run.
      */
     public void solve()
     {
-        ForkJoinPool pool = ForkJoinPool.commonPool();
-        path = pool.invoke(solver);
-        if (path != null && maze.isValidPath(path))
+        long hash = 0;
+        boolean cached = false;
+        if (cache != null) {
+            try {
+                hash = MapHash.of(map);
+                int[] indexes = cache.lookup(hash, solverKind);
+                if (indexes != null) {
+                    path = maze.getBoard().indexesToPath(indexes);
+                    cached = path != null && maze.isValidPath(path);
+                }
+            } catch (IOException e) {
+                System.err.println("Error: cannot read map file " + map);
+            }
+            System.out.println(cached ? "Cache hit" : "Cache miss");
+        }
+        // a hit skips only the search: the cleanup and the report
+        // below are the same as for a miss
+        boolean abstracted = false;
+        int streamed = NOT_STREAMED;
+        if (!cached) {
+            abstracted = cache != null && solver instanceof HierarchicalSolver
+                && readAbstraction(hash, (HierarchicalSolver) solver);
+            if (pathFile != null && !optimize && solver instanceof SequentialSolver)
+                streamed = streamPath((SequentialSolver) solver);
+            else
+                path = pool.invoke(solver);
+            if (cache != null && solver instanceof HierarchicalSolver && !abstracted)
+                writeAbstraction(hash, (HierarchicalSolver) solver);
+            if (solver instanceof SequentialSolver)
+                System.out.println("Expanded nodes: " + ((SequentialSolver) solver).getExpanded());
+            if (solver instanceof BoundedMemorySolver)
+                System.out.println("Bounded memory: " + ((BoundedMemorySolver) solver).getReport());
+            if (solver instanceof PortfolioSolver)
+                System.out.println("Portfolio: " + ((PortfolioSolver) solver).getReport());
+        }
+        // cached paths may come from runs that did not optimize
+        if (optimize && path != null) {
+            PathOptimizer optimizer = new PathOptimizer(maze);
+            List<Integer> found = path;
+            path = pool.invoke(ForkJoinTask.adapt(() -> optimizer.optimize(found)));
+            System.out.println("Path shortened from " + found.size() + " to " + path.size()
+                               + " nodes");
+        }
+        if (record != null) {
+            try {
+                record.write(recordFile);
+            } catch (IOException e) {
+                System.err.println("Error: cannot write portfolio record " + recordFile + ": "
+                                   + e.getMessage());
+            }
+        }
+        if (recorder != null) {
+            maze.setRecorder(null);
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                System.err.println("Error: cannot write trace file");
+            }
+        }
+        if (streamed == STREAM_FAILED)
+            System.out.println("Search aborted: cannot write the path :-(");
+        else if (streamed >= 0)
+            System.out.println(streamed > 0 ? "Goal found :-D"
+                               : "Search completed: no goal found :-(");
+        else if (path != null && maze.isValidPath(path)) {
             System.out.println("Goal found :-D");
-        else
+            if (maze.isWeighted())
+                System.out.println("Path cost: " + maze.pathCost(path));
+            if (pathFile != null)
+                savePath(path);
+            if (cache != null && !cached) {
+                try {
+                    cache.store(hash, solverKind, maze.getBoard().pathToIndexes(path));
+                } catch (IOException e) {
+                    System.err.println("Error: cannot store solution in cache: " + e.getMessage());
+                }
+            }
+        } else
             System.out.println("Search completed: no goal found :-(");
-        pool.shutdown();
+    }
+
+    // outcomes of streamPath other than the length of a path
+    private static final int NOT_STREAMED = -1;
+    private static final int STREAM_FAILED = -2;
+
+    // run solver, streaming its path to the path file and checking
+    // it on the way; return the number of nodes of the path, 0 if
+    // there is no valid path, or STREAM_FAILED if the file cannot be
+    // written
+    private int streamPath(SequentialSolver solver)
+    {
+        try (PathWriter writer = new PathWriter(maze, openPathFile())) {
+            PathCheck check = new PathCheck(maze, writer);
+            int length = pool.invoke(ForkJoinTask.adapt(() -> solver.stream(check)));
+            if (length > 0 && !check.isValid()) {
+                System.err.println("Error: invalid path written to " + pathFile);
+                return 0;
+            }
+            if (length > 0)
+                System.out.println("Path of " + length + " nodes written to " + pathFile);
+            return length;
+        } catch (IOException e) {
+            System.err.println("Error: cannot write path file " + pathFile + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // adapted tasks wrap the consumer's failures
+            if (!(e.getCause() instanceof IOException))
+                throw e;
+            System.err.println("Error: cannot write path file " + pathFile + ": "
+                               + e.getCause().getMessage());
+        }
+        return STREAM_FAILED;
+    }
+
+    // write a path found by a solver that does not stream to the path file
+    private void savePath(List<Integer> path)
+    {
+        int[] nodes = new int[path.size()];
+        for (int k = 0; k < nodes.length; k++)
+            nodes[k] = path.get(k);
+        try (PathWriter writer = new PathWriter(maze, openPathFile())) {
+            writer.accept(nodes, nodes.length);
+            System.out.println("Path of " + nodes.length + " nodes written to " + pathFile);
+        } catch (IOException e) {
+            System.err.println("Error: cannot write path file " + pathFile + ": " + e.getMessage());
+        }
+    }
+
+    private OutputStream openPathFile()
+    throws IOException
+    {
+        return Files.newOutputStream(Paths.get(pathFile));
+    }
+
+    private static final String ABSTRACTION = ".hpa";
+
+    // use the abstraction of the map in the cache, if there is one
+    private boolean readAbstraction(long hash, HierarchicalSolver solver)
+    {
+        byte[] data = cache.lookupData(hash, ABSTRACTION);
+        if (data == null)
+            return false;
+        try {
+            return solver.readAbstraction(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void writeAbstraction(long hash, HierarchicalSolver solver)
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                solver.writeAbstraction(out);
+            }
+            cache.storeData(hash, ABSTRACTION, bytes.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Error: cannot store abstraction in cache: " + e.getMessage());
+        }
     }
 
     /**
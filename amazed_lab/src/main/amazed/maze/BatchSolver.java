@@ -0,0 +1,177 @@
+package amazed.maze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import amazed.solver.PortfolioRecord;
+import amazed.solver.PortfolioSolver;
+
+
+/**
+ * Solves many maps, each with a solver of the same kind, and writes
+ * one line of results per map as soon as the map is solved.
+ * <p>
+ * The maps are split among a number of shards, each with its own
+ * <code>ForkJoinPool</code> and a thread that loads a map, runs its
+ * solver on the pool, and moves on to the next map. Maps are handed
+ * out one at a time from a shared list, largest file first: a shard
+ * that finishes early takes the next map instead of waiting on a
+ * fixed share, and scheduling the longest jobs first
+ * (longest-processing-time order) keeps the last shard to finish from
+ * starting a large map late.
+ * <p>
+ * Results are written to a single output, one tab-separated line per
+ * map, in order of completion: the map file, the outcome
+ * (<code>found</code>, <code>none</code>, or <code>error</code>), the
+ * number of nodes of the path, the size of the map file in bytes,
+ * the time to load the map and to solve it in milliseconds, the shard
+ * that solved it, and, for errors, a message.
+ */
+
+public class BatchSolver
+{
+    /**
+     * The first line of the results, naming the columns.
+     */
+    public static final String HEADER =
+        "# map\toutcome\tlength\tbytes\tload_ms\tsolve_ms\tshard\tmessage";
+
+    private final Amazed.Strategy strategy;
+    private final int parameter;
+    private final long seed;
+    private PortfolioRecord record = null;
+
+    /**
+     * Creates a batch solver that solves every map with a solver of
+     * kind <code>strategy</code>.
+     *
+     * @param strategy    the kind of solver used to search the mazes
+     * @param parameter   the solver's numeric parameter, as in
+     *                    {@link Amazed#Amazed(String, Amazed.Strategy, int, int, long)}
+     * @param seed        the seed that determines the node identifiers
+     */
+    public BatchSolver(Amazed.Strategy strategy, int parameter, long seed)
+    {
+        this.strategy = strategy;
+        this.parameter = parameter;
+        this.seed = seed;
+    }
+
+    /**
+     * Records the winners of portfolio solvers into
+     * <code>record</code>, shared by all maps, and lets later maps run
+     * the usual winner of their class alone; it has no effect unless
+     * the strategy is <code>Strategy.PORTFOLIO</code>.
+     *
+     * @param record   the record of winners
+     */
+    public void usePortfolioRecord(PortfolioRecord record)
+    {
+        this.record = record;
+    }
+
+    /**
+     * Solves all maps in <code>maps</code>, writing the results to
+     * <code>out</code> as maps are solved.
+     *
+     * @param maps          the names of the map files
+     * @param shards        the number of maps solved at the same time
+     * @param parallelism   the number of threads of each shard's pool
+     * @param out           the output of the results, which is flushed
+     *                      after every line
+     * @return              the number of maps where a path was found
+     * @throws IOException            if writing the results fails
+     * @throws InterruptedException   if interrupted while waiting for
+     *                                the shards
+     */
+    public int solve(List<String> maps, int shards, int parallelism, Writer out)
+    throws IOException, InterruptedException
+    {
+        List<File> files = new ArrayList<>();
+        for (String map: maps)
+            files.add(new File(map));
+        // longest processing time first, estimated by file size
+        files.sort(Comparator.comparingLong(File::length).reversed());
+        out.write(HEADER + "\n");
+        out.flush();
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger found = new AtomicInteger();
+        IOException[] failure = new IOException[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+            int shard = s;
+            Thread thread = new Thread(() -> {
+                    ForkJoinPool pool = new ForkJoinPool(parallelism);
+                    try {
+                        int k;
+                        while ((k = next.getAndIncrement()) < files.size()) {
+                            String line = solve(files.get(k), pool, shard, found);
+                            synchronized (out) {
+                                out.write(line);
+                                out.flush();
+                            }
+                        }
+                    } catch (IOException e) {
+                        synchronized (failure) {
+                            if (failure[0] == null)
+                                failure[0] = e;
+                        }
+                        // stop the other shards too
+                        next.set(files.size());
+                    } finally {
+                        pool.shutdown();
+                    }
+                }, "amazed-shard-" + s);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads)
+            thread.join();
+        if (failure[0] != null)
+            throw failure[0];
+        return found.get();
+    }
+
+    // solve a single map on pool; return its line of results
+    private String solve(File file, ForkJoinPool pool, int shard, AtomicInteger found)
+    {
+        long start = System.nanoTime(), loaded = start;
+        String outcome, message = "";
+        int length = 0;
+        try {
+            Maze maze = new Maze(Board.read(file.getPath(), seed, pool));
+            maze.setDelay(-1);
+            loaded = System.nanoTime();
+            RecursiveTask<List<Integer>> solver = Amazed.newSolver(maze, strategy, parameter);
+            if (record != null && solver instanceof PortfolioSolver)
+                ((PortfolioSolver) solver).useRecord(record);
+            List<Integer> path = pool.invoke(solver);
+            if (path != null && maze.isValidPath(path)) {
+                outcome = "found";
+                length = path.size();
+                found.incrementAndGet();
+            } else
+                outcome = "none";
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // a map that cannot be solved does not stop the batch
+            outcome = "error";
+            message = String.valueOf(e.getMessage()).replace('\t', ' ').replace('\n', ' ');
+        }
+        long stop = System.nanoTime();
+        if (loaded == start)
+            loaded = stop;
+        return file.getPath() + "\t" + outcome + "\t" + length + "\t" + file.length()
+            + "\t" + TimeUnit.NANOSECONDS.toMillis(loaded - start)
+            + "\t" + TimeUnit.NANOSECONDS.toMillis(stop - loaded)
+            + "\t" + shard + "\t" + message + "\n";
+    }
+}
@@ -1,86 +1,240 @@
 package amazed.maze;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 
 public class Board
 {
 
-    // after creation, read-only access (except for operation markPath)
-    private Cell[][] board;
+    // tile ordinal of every cell, in blocks of BLOCK x BLOCK cells
+    // (one cache line per block), blocks in row-major order; after
+    // creation, read-only access except for operations markPath and
+    // setTile, which write single bytes, so readers racing with a
+    // writer see either the old or the new tile; in large maps, as
+    // configured with OffHeapArray.configure, the tiles are in
+    // offHeapTiles instead, and tiles is null
+    private byte[] tiles;
+    private OffHeapArray offHeapTiles;
+    private int blockCols;
+    private static final int BLOCK_BITS = 3;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+    private static final VarHandle TILES = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final Tile[] TILE_VALUES = Tile.values();
     private int nRows;
     private int nCols;
+    // in weighted maps, cells have costs and bricks are passable
+    private boolean weighted;
 
-    // players currently on the board
-    // player identifier --> player object
-    private final Map<Integer, Player> players;
+    // positions of players currently on the board
+    private PlayerRegistry players;
     // count of number of registered players, to ensure unique player ids
     private final AtomicInteger nPlayers = new AtomicInteger();
 
-    // unique node id --> coordinate position of node on board
+    // row-major index of node on board --> unique node id +
+    // nRows*nCols (ids range over -nRows*nCols to nRows*nCols - 1)
     // after creation, read-only access
-    private Map<Integer, Position> idToCell;
+    private IdPermutation ids;
 
-    // empty board
-    Board(int nRows, int nCols)
-    {
-        board = new Cell[nRows][nCols];
-        this.nRows = nRows;
-        this.nCols = nCols;
-        players = new ConcurrentHashMap<>();
-        idToCell = new HashMap<>();
-    }
+    // cells whose appearance changed since they were last drained:
+    // one bit per cell (row-major index), plus one summary bit per
+    // word of cell bits, so that draining skips clean regions quickly
+    private AtomicLongArray dirty;
+    private AtomicLongArray dirtySummary;
+    // cells that a player has been on, one bit per cell
+    private AtomicLongArray visited;
 
-    // board from map `filename'
-    Board(String filename)
+    // board from map `filename', with node ids determined by `seed',
+    // read in parallel on `pool'
+    Board(String filename, long seed, ForkJoinPool pool)
     {
         try {
-            readMap(filename);
+            readMap(filename, seed, pool);
         } catch (IOException e) {
-            System.err.println("Error: cannot open map file " + filename);
+            System.err.println("Error: cannot open map file " + filename + ": " + e.getMessage());
             System.exit(1);
         }
-        players = new ConcurrentHashMap<>();
+        players = new PlayerRegistry(nRows, nCols);
+        initDirty();
+    }
+
+    private Board()
+    {
+    }
+
+    // as Board(filename, seed, pool), but report failure to read the
+    // map to the caller instead of exiting
+    static Board read(String filename, long seed, ForkJoinPool pool)
+    throws IOException
+    {
+        Board board = new Board();
+        board.readMap(filename, seed, pool);
+        board.players = new PlayerRegistry(board.nRows, board.nCols);
+        board.initDirty();
+        return board;
+    }
+
+    // board from map `filename', with node ids determined by `seed'
+    Board(String filename, long seed)
+    {
+        this(filename, seed, ForkJoinPool.commonPool());
+    }
+
+    // board from map `filename', with random node ids
+    Board(String filename)
+    {
+        this(filename, new Random().nextLong());
+    }
+
+    private void initDirty()
+    {
+        int nWords = (nRows*nCols + 63) >>> 6;
+        dirty = new AtomicLongArray(nWords);
+        dirtySummary = new AtomicLongArray((nWords + 63) >>> 6);
+        visited = new AtomicLongArray(nWords);
+    }
+
+    // set bit `index' in `bits', unless it is already set
+    private static void setBit(AtomicLongArray bits, int index)
+    {
+        int word = index >>> 6;
+        long bit = 1L << index, old;
+        while (((old = bits.get(word)) & bit) == 0
+               && !bits.compareAndSet(word, old, old | bit))
+            ;
+    }
+
+    // record that the cell in row, col has to be redrawn
+    void markDirty(int row, int col)
+    {
+        int index = row*nCols + col;
+        // cell bit first, summary bit second: a concurrent drain
+        // that misses the cell bit will find the summary bit later
+        setBit(dirty, index);
+        setBit(dirtySummary, index >>> 6);
+    }
+
+    // has any player been on the cell in row, col?
+    boolean isVisited(int row, int col)
+    {
+        int index = row*nCols + col;
+        return (visited.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    private void markVisited(int row, int col)
+    {
+        setBit(visited, row*nCols + col);
+    }
+
+    // pass the row-major index of every dirty cell to action, and
+    // mark the cell as clean; thread safe
+    void drainDirty(IntConsumer action)
+    {
+        for (int s = 0; s < dirtySummary.length(); s++) {
+            long summary = dirtySummary.getAndSet(s, 0);
+            while (summary != 0) {
+                int word = (s << 6) + Long.numberOfTrailingZeros(summary);
+                summary &= summary - 1;
+                long bits = dirty.getAndSet(word, 0);
+                while (bits != 0) {
+                    action.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    // offset in tiles of the cell in row, col
+    private int offset(int row, int col)
+    {
+        int block = (row >>> BLOCK_BITS)*blockCols + (col >>> BLOCK_BITS);
+        return (block << 2*BLOCK_BITS) | (row & BLOCK_MASK) << BLOCK_BITS | (col & BLOCK_MASK);
+    }
+
+    Tile getTile(int row, int col)
+    {
+        int offset = offset(row, col);
+        return TILE_VALUES[tiles != null ? tiles[offset] : offHeapTiles.getByte(offset)];
+    }
+
+    // id of the node with row-major index `index'
+    int idOf(int index)
+    {
+        return (int) (ids.apply(index) - (long) nRows*nCols);
     }
 
+    int getId(int row, int col)
+    {
+        return idOf(row*nCols + col);
+    }
+
+    // a view of the cell in row, col; created on demand, mainly for rendering
     Cell getCell(int row, int col)
     {
-        return board[row][col];
+        return new Cell(getTile(row, col), getId(row, col));
     }
 
     Cell getCell(Position position)
     {
-        return board[position.getRow()][position.getCol()];
+        return getCell(position.getRow(), position.getCol());
     }
 
     Cell getCell(int id)
     {
-        return getCell(idToCell.get(id));
+        return getCell(getPosition(id));
     }
 
     Position getPosition(int id)
     {
-        return idToCell.get(id);
+        int index = indexOf(id);
+        if (index < 0)
+            return null;
+        return new Position(index / nCols, index % nCols);
+    }
+
+    // linear index (row-major) of node with given id, or -1 if
+    // there is no such node; stable across loads
+    int indexOf(int id)
+    {
+        long numCells = (long) nRows*nCols;
+        long offset = id + numCells;
+        if (offset < 0 || offset >= 2*numCells)
+            return -1;
+        long index = ids.inverse(offset);
+        return index < numCells ? (int) index : -1;
     }
 
-    int getWidth()
+    // is the cell with row-major index `index' accessible?
+    boolean isAccessible(int index)
     {
-        return nCols * board[0][0].getWidth();
+        return getTile(index / nCols, index % nCols).isAccessible(weighted);
     }
 
-    int getHeight()
+    boolean isWeighted()
     {
-        return nRows * board[0][0].getHeight();
+        return weighted;
+    }
+
+    // cost of moving onto the accessible cell in row, col
+    int getCost(int row, int col)
+    {
+        return weighted ? getTile(row, col).getCost() : 1;
+    }
+
+    // does the cell with row-major index `index' contain a goal?
+    boolean isHeart(int index)
+    {
+        return getTile(index / nCols, index % nCols) == Tile.HEART;
     }
 
     int getRows()
@@ -101,114 +255,151 @@ public class Board
         return positionPath;
     }
 
+    // row-major cell indexes of the nodes in path
+    int[] pathToIndexes(List<Integer> path)
+    {
+        int[] indexes = new int[path.size()];
+        int k = 0;
+        for (int id: path)
+            indexes[k++] = indexOf(id);
+        return indexes;
+    }
+
+    // node ids of the cells with row-major indexes in indexes
+    List<Integer> indexesToPath(int[] indexes)
+    {
+        List<Integer> path = new ArrayList<>(indexes.length);
+        for (int index: indexes) {
+            if (index < 0 || index >= nRows*nCols)
+                return null;
+            path.add(idOf(index));
+        }
+        return path;
+    }
+
+    // replace the tile in row, col, keeping the node's id; thread
+    // safe with respect to concurrent readers
+    void setTile(int row, int col, Tile tile)
+    {
+        if (tiles != null)
+            TILES.setVolatile(tiles, offset(row, col), (byte) tile.ordinal());
+        else
+            offHeapTiles.setByteVolatile(offset(row, col), (byte) tile.ordinal());
+        markDirty(row, col);
+    }
+
     // thread unsafe
     void markPath(List<Integer> path)
     {
-        List<Position> positionPath = pathToPositions(path);
-        for (Position position: positionPath) {
-            int row = position.getRow(), col = position.getCol();
-            board[row][col] = getCell(position).marked();
+        for (int id: path) {
+            int index = indexOf(id);
+            if (index < 0)
+                continue;
+            int row = index / nCols, col = index % nCols;
+            byte marked = (byte) getTile(row, col).marked().ordinal();
+            if (tiles != null)
+                tiles[offset(row, col)] = marked;
+            else
+                offHeapTiles.setByte(offset(row, col), marked);
+            markDirty(row, col);
         }
     }
 
-    private void readMap(String mapFile)
+    // read the grid from the map's index if it has a valid one, and
+    // otherwise parse the map
+    private void readMap(String mapFile, long seed, ForkJoinPool pool)
     throws FileNotFoundException, IOException
     {
-        Cell cell;
-        int row = 0, col = 0, nId = 0;
-        List<Integer> ids = null;
-        try (BufferedReader br = new BufferedReader(new FileReader(mapFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // remove whitespaces
-                line = line.replaceAll("\\s", "");
-                StringReader lineReader = new StringReader(line);
-                int ch, id = 0;
-                line_loop:
-                while ((ch = lineReader.read()) != -1) {
-                    switch (ch) {
-                    case '@':
-                        break line_loop;
-                    case '$':
-                        Pattern p = Pattern.compile("^\\$(\\d+),(\\d+)$");
-                        Matcher m = p.matcher(line);
-                        if (m.find()) {
-                            nRows = Integer.parseInt(m.group(1));
-                            nCols = Integer.parseInt(m.group(2));
-                            board = new Cell[nRows][nCols];
-                            int numCells = nRows*nCols;
-                            ids = new ArrayList<>(2*numCells);
-                            for (int i = -numCells; i < numCells; i++)
-                                ids.add(i);
-                            Collections.shuffle(ids);
-                            idToCell = new HashMap<>(numCells);
-                        }
-                        break line_loop;
-                    default:
-                        if (row < nRows && col < nCols)
-                            id = ids.get(nId++);
-                        if (ch == Tile.EMPTY.getChar())
-                            cell = new Cell(Tile.EMPTY, id);
-                        else if (ch == Tile.SOLID.getChar())
-                            cell = new Cell(Tile.SOLID, id);
-                        else if (ch == Tile.BRICK.getChar())
-                            cell = new Cell(Tile.BRICK, id);
-                        else if (ch == Tile.HEART.getChar())
-                            cell = new Cell(Tile.HEART, id);
-                        else {
-                            System.out.println("Unrecognized symbol " +
-                                               Character.toString((char) ch) + " on " +
-                                               "row " + row + " column " + col);
-                            System.out.println("... using empty cell instead.");
-                            cell = new Cell(Tile.EMPTY, id);
-                        }
-                    }
-                    // Ignore rows and columns beyond the declared ones
-                    if (row < nRows && col < nCols) {
-                        board[row][col] = cell;
-                        idToCell.put(id, new Position(row, col));
-                        col += 1;
-                    }
-                }
-                if (nCols > 0 && col == nCols) {
-                    row += 1;
-                    col = 0;
-                }
-            }
+        MapIndex index = MapIndex.read(mapFile, BLOCK_BITS);
+        if (index != null) {
+            nRows = index.nRows;
+            nCols = index.nCols;
+            weighted = index.weighted;
+            ids = new IdPermutation(2L*nRows*nCols, seed);
+            blockCols = (nCols + BLOCK_MASK) >>> BLOCK_BITS;
+            tiles = index.tiles;
+            offHeapTiles = index.offHeapTiles;
+            return;
         }
+        MapParser parser = new MapParser(mapFile, pool);
+        byte[] tiles = parser.parse();
+        parser.reportErrors();
+        nRows = parser.getRows();
+        nCols = parser.getCols();
+        weighted = parser.isWeighted();
+        // an empty board has no start, nor any node ids
+        if (nRows <= 0 || nCols <= 0)
+            throw new IOException("no size declaration, or no cells");
+        ids = new IdPermutation(2L*nRows*nCols, seed);
+        // copy the row-major grid of the parser into blocks, one row
+        // of blocks at a time
+        blockCols = (nCols + BLOCK_MASK) >>> BLOCK_BITS;
+        int blockRows = (nRows + BLOCK_MASK) >>> BLOCK_BITS;
+        int size = (blockRows*blockCols) << 2*BLOCK_BITS;
+        if (OffHeapArray.isUsedFor(size))
+            offHeapTiles = OffHeapArray.allocate(size);
+        else
+            this.tiles = new byte[size];
+        // a parallel stream runs in the pool of the task that starts it
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, blockRows).parallel().forEach(blockRow -> {
+                int last = Math.min(nRows, (blockRow + 1) << BLOCK_BITS);
+                for (int row = blockRow << BLOCK_BITS; row < last; row++)
+                    for (int col = 0; col < nCols; col++) {
+                        if (offHeapTiles != null)
+                            offHeapTiles.setByte(offset(row, col), tiles[row*nCols + col]);
+                        else
+                            this.tiles[offset(row, col)] = tiles[row*nCols + col];
+                    }
+            })));
+    }
+
+    // save the grid as the index of map `mapFile', which the board
+    // was read from; only meaningful before the grid is changed by
+    // markPath or setTile
+    void writeIndex(String mapFile)
+    throws IOException
+    {
+        if (tiles != null)
+            MapIndex.write(mapFile, BLOCK_BITS, nRows, nCols, weighted, tiles.length,
+                           out -> out.write(tiles));
+        else
+            MapIndex.write(mapFile, BLOCK_BITS, nRows, nCols, weighted, offHeapTiles.size(),
+                           offHeapTiles::writeTo);
+    }
+
+    // players' positions at one instant, without copying the board
+    BoardSnapshot snapshot()
+    {
+        return players.snapshot();
     }
 
     String asText()
     {
+        return asText(snapshot());
+    }
+
+    // printable board with players in the positions of snapshot
+    String asText(BoardSnapshot snapshot)
+    {
+        int[] occupied = snapshot.occupiedCells(nCols);
+        int next = 0;
         StringWriter result = new StringWriter(nRows*(2 + nCols*2));
         for (int row = 0; row < nRows; row++) {
             for (int col = 0; col < nCols; col++) {
+                int index = row*nCols + col;
+                while (next < occupied.length && occupied[next] < index)
+                    next++;
                 result.append(' ');
-                result.append(board[row][col].getText());
+                if (next < occupied.length && occupied[next] == index)
+                    result.append(Player.TEXT);
+                else
+                    result.append(getTile(row, col).getText());
             }
             result.append('\n');
         }
         return result.toString();
     }
 
-    // printable deep copy of the board with all players in consistent positions
-    Board consistentBoard()
-    {
-        Board result = new Board(nRows, nCols);
-        for (int row = 0; row < nRows; row++) {
-            for (int col = 0; col < nCols; col++) {
-                Cell cell = board[row][col];
-                result.board[row][col] = new Cell(cell.getTile(), cell.getId());
-            }
-        }
-        for (Player player: players.values()) {
-            Position pos = player.getPosition();
-            Player newPlayer = new Player(player.getId(), player.getName());
-            newPlayer.onBoard(result, pos.getRow(), pos.getCol());
-        }
-        return result;
-    }
-
     // is the position row, col a valid position on the board?
     boolean isOnBoard(int row, int col)
     {
@@ -217,7 +408,7 @@ public class Board
 
     boolean isAccessible(int row, int col)
     {
-        return isOnBoard(row, col) && board[row][col].isAccessible();
+        return isOnBoard(row, col) && getTile(row, col).isAccessible(weighted);
     }
 
     Position move(Position position, Direction direction)
@@ -242,54 +433,71 @@ public class Board
         return null;
     }
 
-    void register(Player player, int row, int col)
+    // add player playerId to the board in row, col
+    void register(int playerId, int row, int col)
     {
-        if (isOnBoard(row, col)) {
-            board[row][col].add(player);
-            players.put(player.getId(), player);
+        if (isOnBoard(row, col) && players.add(playerId, row, col)) {
+            markVisited(row, col);
+            markDirty(row, col);
         }
     }
 
+    // fresh player identifier, also used for players that are not on the board
+    int nextPlayerId()
+    {
+        return nPlayers.getAndIncrement();
+    }
+
     int newPlayer(int id)
     {
-        int playerId = nPlayers.getAndIncrement();
-        Player player = new Player(playerId, "thread_" + playerId);
-        player.onBoard(this, id);
+        int playerId = nextPlayerId();
+        Position position = getPosition(id);
+        register(playerId, position.getRow(), position.getCol());
         return playerId;
     }
 
-    void deregister(Player player, int row, int col)
+    void deregister(int playerId)
     {
-        if (isOnBoard(row, col)) {
-            board[row][col].remove(player);
-            players.remove(player.getId());
-        }
+        long position = players.remove(playerId);
+        if (position != PlayerRegistry.ABSENT)
+            markDirty(PlayerRegistry.row(position), PlayerRegistry.col(position));
     }
 
     void deregisterAll()
     {
-        for (Map.Entry<Integer, Player> entry: players.entrySet()) {
-            Player player = entry.getValue();
-            Position position = player.getPosition();
-            deregister(player, position.getRow(), position.getCol());
-        }
+        for (int playerId = 0; playerId < players.bound(); playerId++)
+            deregister(playerId);
+    }
+
+    // packed position of player playerId (see PlayerRegistry),
+    // or PlayerRegistry.ABSENT if the player is not on the board
+    long getPlayerPosition(int playerId)
+    {
+        return players.position(playerId);
+    }
+
+    // number of players on the cell in row, col
+    int countPlayers(int row, int col)
+    {
+        return players.count(row, col);
     }
 
-    Player getPlayer(int playerId)
+    // identifier of a player on the cell in row, col, or -1 if there is none
+    int getOccupant(int row, int col)
     {
-        return players.get(playerId);
+        return players.occupant(row, col);
     }
 
-    // move registered player from its current position to newRow, newCol
-    void move(Player player, int newRow, int newCol)
+    // move registered player playerId from its current position to newRow, newCol
+    void move(int playerId, int newRow, int newCol)
     {
-        int row = player.getRow();
-        int col = player.getCol();
-        if (isOnBoard(newRow, newCol) && players.containsKey(player.getId())) {
-            board[row][col].remove(player);
-            board[newRow][newCol].add(player);
-            player.setRow(newRow);
-            player.setCol(newCol);
+        if (!isOnBoard(newRow, newCol))
+            return;
+        long old = players.move(playerId, newRow, newCol);
+        if (old != PlayerRegistry.ABSENT) {
+            markVisited(newRow, newCol);
+            markDirty(PlayerRegistry.row(old), PlayerRegistry.col(old));
+            markDirty(newRow, newCol);
         }
     }
 }
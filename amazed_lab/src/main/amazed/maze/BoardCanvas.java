@@ -0,0 +1,414 @@
+package amazed.maze;
+
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+
+
+/**
+ * Zoomable graphical representation of a board, meant to be the view
+ * of a <code>JScrollPane</code>.
+ * <p>
+ * The canvas is split into square tiles of pixels, which are drawn
+ * lazily when they intersect the visible area and cached in a bounded
+ * LRU cache; thus, painting cost depends on the size of the viewport
+ * and not on the size of the board. Cells that change on the board are
+ * only redrawn if their tile is cached.
+ * <p>
+ * The level of detail depends on the zoom: at large zoom levels every
+ * cell is drawn with its image; at intermediate levels, with a solid
+ * colour; when zoomed out so much that a pixel covers a block of
+ * several cells, the pixel's colour aggregates the block's walls,
+ * visited cells and players. Zoom with control and the mouse wheel,
+ * or with keys <code>+</code> and <code>-</code>.
+ */
+
+class BoardCanvas extends JPanel {
+
+    private static final int TILE_SIZE = 256;
+    private static final int MAX_TILES = 128;
+    // minimum pixels per cell to draw images rather than colours
+    private static final int MIN_IMAGE_PIXELS = 8;
+    // minimum pixels per cell to draw player counts
+    private static final int MIN_COUNT_PIXELS = 24;
+
+    private static final Color PLAYER_COLOR = new Color(255, 32, 32);
+    private static final Color VISITED_COLOR = new Color(255, 230, 64);
+
+    private final Board board;
+    private final int nativeSize;
+    private final Font countFont = new Font(null, Font.BOLD, 16);
+    private final Map<Tile, Color> tileColors = new EnumMap<>(Tile.class);
+
+    // current zoom: pixelsPerCell pixels per cell side if
+    // cellsPerPixel == 1, and cellsPerPixel cells per pixel side
+    // if pixelsPerCell == 1
+    private int pixelsPerCell;
+    private int cellsPerPixel;
+
+    // tile coordinates --> tile image, in least recently used order
+    private final LinkedHashMap<Long, BufferedImage> tiles =
+        new LinkedHashMap<>(MAX_TILES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                return size() > MAX_TILES;
+            }
+        };
+
+    private Color visibleTextColor(int playerId)
+    {
+        switch (playerId) {
+        case 1:
+            return Color.WHITE;
+        case 2:
+            return Color.RED;
+        case 3:
+        case 4:
+            return Color.BLACK;
+        default:
+            return Color.RED;
+        }
+    }
+
+    BoardCanvas(Board board, Dimension screen)
+    {
+        this.board = board;
+        Image empty = ImageFactory.getImage(Tile.EMPTY);
+        nativeSize = Math.max(1, empty == null ? 0 : empty.getWidth(null));
+        for (Tile tile: Tile.values())
+            tileColors.put(tile, averageColor(ImageFactory.getImage(tile)));
+        setOpaque(true);
+        initialZoom(screen);
+        // the board is drawn lazily: changes so far are irrelevant
+        board.drainDirty(index -> {});
+
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+            .put(KeyStroke.getKeyStroke('+'), "zoomIn");
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+            .put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, 0), "zoomIn");
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+            .put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, 0), "zoomOut");
+        getActionMap().put("zoomIn", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    zoom(1, null);
+                }
+            });
+        getActionMap().put("zoomOut", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    zoom(-1, null);
+                }
+            });
+        addMouseWheelListener(this::mouseWheelMoved);
+    }
+
+    private static Color averageColor(Image image)
+    {
+        if (image == null)
+            return Color.GRAY;
+        int width = image.getWidth(null), height = image.getHeight(null);
+        if (width <= 0 || height <= 0)
+            return Color.GRAY;
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = copy.getGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        long r = 0, gr = 0, b = 0;
+        for (int rgb: copy.getRGB(0, 0, width, height, null, 0, width)) {
+            r += (rgb >> 16) & 0xff;
+            gr += (rgb >> 8) & 0xff;
+            b += rgb & 0xff;
+        }
+        int n = width*height;
+        return new Color((int) (r / n), (int) (gr / n), (int) (b / n));
+    }
+
+    // largest zoom at which the board fits a few screens; native
+    // size, if possible
+    private void initialZoom(Dimension screen)
+    {
+        long maxWidth = 4L*screen.width, maxHeight = 4L*screen.height;
+        pixelsPerCell = nativeSize;
+        cellsPerPixel = 1;
+        while (!fits(maxWidth, maxHeight) && zoomOut())
+            ;
+    }
+
+    private boolean fits(long maxWidth, long maxHeight)
+    {
+        Dimension size = getPreferredSize();
+        return size.width <= maxWidth && size.height <= maxHeight;
+    }
+
+    private boolean zoomIn()
+    {
+        if (cellsPerPixel > 1)
+            cellsPerPixel /= 2;
+        else if (pixelsPerCell < nativeSize)
+            pixelsPerCell = Math.min(nativeSize, 2*Integer.highestOneBit(pixelsPerCell));
+        else
+            return false;
+        return true;
+    }
+
+    private boolean zoomOut()
+    {
+        if (pixelsPerCell > 1)
+            pixelsPerCell = pixelsPerCell == nativeSize && Integer.bitCount(nativeSize) != 1
+                ? Integer.highestOneBit(nativeSize) : pixelsPerCell / 2;
+        else if (cellsPerPixel < Math.max(board.getRows(), board.getCols()))
+            cellsPerPixel *= 2;
+        else
+            return false;
+        return true;
+    }
+
+    // zoom in (steps > 0) or out (steps < 0), keeping the board
+    // point under anchor (in canvas coordinates) still on screen;
+    // if anchor is null, keep the center of the viewport still
+    private void zoom(int steps, Point anchor)
+    {
+        Container parent = getParent();
+        JViewport viewport = parent instanceof JViewport ? (JViewport) parent : null;
+        Rectangle visible = getVisibleRect();
+        if (anchor == null)
+            anchor = new Point(visible.x + visible.width/2, visible.y + visible.height/2);
+        double oldScale = scale();
+        boolean changed = false;
+        for (; steps > 0 && zoomIn(); steps--)
+            changed = true;
+        for (; steps < 0 && zoomOut(); steps++)
+            changed = true;
+        if (!changed)
+            return;
+        tiles.clear();
+        double ratio = scale() / oldScale;
+        revalidate();
+        if (viewport != null) {
+            Point view = viewport.getViewPosition();
+            int x = (int) (anchor.x*ratio) - (anchor.x - view.x);
+            int y = (int) (anchor.y*ratio) - (anchor.y - view.y);
+            Dimension size = getPreferredSize();
+            Dimension extent = viewport.getExtentSize();
+            viewport.setViewSize(size);
+            viewport.setViewPosition(new Point(
+                Math.max(0, Math.min(x, size.width - extent.width)),
+                Math.max(0, Math.min(y, size.height - extent.height))));
+        }
+        repaint();
+    }
+
+    private void mouseWheelMoved(MouseWheelEvent e)
+    {
+        if ((e.getModifiersEx() & InputEvent.CTRL_DOWN_MASK) != 0)
+            zoom(-e.getWheelRotation(), e.getPoint());
+        else if (getParent() != null)
+            // let the enclosing scroll pane scroll
+            getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+    }
+
+    // pixels per cell side, possibly less than one
+    private double scale()
+    {
+        return (double) pixelsPerCell / cellsPerPixel;
+    }
+
+    // area of the canvas covered by cell in row, col
+    private Rectangle cellArea(int row, int col)
+    {
+        if (cellsPerPixel > 1)
+            return new Rectangle(col / cellsPerPixel, row / cellsPerPixel, 1, 1);
+        return new Rectangle(col*pixelsPerCell, row*pixelsPerCell, pixelsPerCell, pixelsPerCell);
+    }
+
+    private Color cellColor(Cell cell, int row, int col)
+    {
+        if (board.countPlayers(row, col) > 0)
+            return PLAYER_COLOR;
+        if (board.isAccessible(row, col) && board.isVisited(row, col))
+            return VISITED_COLOR;
+        return tileColors.get(cell.getTile());
+    }
+
+    // draw cell on a graphics context in canvas coordinates
+    private void drawCell(Graphics2D g, int row, int col)
+    {
+        Cell cell = board.getCell(row, col);
+        int x = col*pixelsPerCell, y = row*pixelsPerCell;
+        if (pixelsPerCell < MIN_IMAGE_PIXELS) {
+            g.setColor(cellColor(cell, row, col));
+            g.fillRect(x, y, pixelsPerCell, pixelsPerCell);
+            return;
+        }
+        int occupant = board.getOccupant(row, col);
+        Image image = occupant < 0
+            ? ImageFactory.getImage(cell.getTile()) : ImageFactory.getPlayerImage(occupant);
+        g.drawImage(image, x, y, pixelsPerCell, pixelsPerCell, null);
+        int players = board.countPlayers(row, col);
+        if (players > 1 && pixelsPerCell >= MIN_COUNT_PIXELS) {
+            String count = Integer.toString(players);
+            g.setFont(countFont);
+            g.setColor(visibleTextColor(occupant));
+            int textWidth = g.getFontMetrics().stringWidth(count);
+            g.drawString(count, x + pixelsPerCell - textWidth - 1, y + pixelsPerCell - 2);
+        }
+    }
+
+    // colour of the pixel in column x, row y aggregating a block of cells:
+    // walls darken it, visited cells turn it yellow, players red
+    private int blockColor(int x, int y)
+    {
+        int row0 = y*cellsPerPixel, col0 = x*cellsPerPixel;
+        int row1 = Math.min(board.getRows(), row0 + cellsPerPixel);
+        int col1 = Math.min(board.getCols(), col0 + cellsPerPixel);
+        int open = 0, visited = 0, players = 0, total = 0;
+        for (int row = row0; row < row1; row++) {
+            for (int col = col0; col < col1; col++) {
+                total++;
+                if (!board.isAccessible(row, col))
+                    continue;
+                open++;
+                if (board.isVisited(row, col))
+                    visited++;
+                players += board.countPlayers(row, col);
+            }
+        }
+        if (players > 0) {
+            int intensity = Math.min(255, 128 + 32*players);
+            return intensity << 16 | 0x1010;
+        }
+        if (total == 0)
+            return 0;
+        Color wall = tileColors.get(Tile.SOLID), floor = tileColors.get(Tile.EMPTY);
+        double openRatio = (double) open / total;
+        double visitedRatio = open > 0 ? (double) visited / open : 0;
+        int r = mix(wall.getRed(), floor.getRed(), VISITED_COLOR.getRed(), openRatio, visitedRatio);
+        int g = mix(wall.getGreen(), floor.getGreen(), VISITED_COLOR.getGreen(), openRatio, visitedRatio);
+        int b = mix(wall.getBlue(), floor.getBlue(), VISITED_COLOR.getBlue(), openRatio, visitedRatio);
+        return r << 16 | g << 8 | b;
+    }
+
+    private static int mix(int wall, int floor, int visited, double openRatio, double visitedRatio)
+    {
+        double open = floor + (visited - floor)*visitedRatio;
+        return (int) (wall + (open - wall)*openRatio);
+    }
+
+    private static long tileKey(int tx, int ty)
+    {
+        return ((long) tx << 32) | (ty & 0xffffffffL);
+    }
+
+    // cached image of tile tx, ty, drawing it if necessary
+    private BufferedImage tile(int tx, int ty)
+    {
+        long key = tileKey(tx, ty);
+        BufferedImage image = tiles.get(key);
+        if (image == null) {
+            image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            drawTile(image, tx, ty, new Rectangle(0, 0, TILE_SIZE, TILE_SIZE));
+            tiles.put(key, image);
+        }
+        return image;
+    }
+
+    // draw the part of tile tx, ty within area (in tile coordinates)
+    private void drawTile(BufferedImage image, int tx, int ty, Rectangle area)
+    {
+        int x0 = tx*TILE_SIZE, y0 = ty*TILE_SIZE;
+        Dimension size = getPreferredSize();
+        area = area.intersection(new Rectangle(0, 0, size.width - x0, size.height - y0));
+        if (area.isEmpty())
+            return;
+        if (cellsPerPixel > 1) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int y = area.y; y < area.y + area.height; y++)
+                for (int x = area.x; x < area.x + area.width; x++)
+                    pixels[y*TILE_SIZE + x] = blockColor(x0 + x, y0 + y);
+            return;
+        }
+        Graphics2D g = image.createGraphics();
+        g.clip(area);
+        g.translate(-x0, -y0);
+        int col0 = (x0 + area.x) / pixelsPerCell, row0 = (y0 + area.y) / pixelsPerCell;
+        int col1 = Math.min(board.getCols() - 1, (x0 + area.x + area.width - 1) / pixelsPerCell);
+        int row1 = Math.min(board.getRows() - 1, (y0 + area.y + area.height - 1) / pixelsPerCell);
+        for (int row = row0; row <= row1; row++)
+            for (int col = col0; col <= col1; col++)
+                drawCell(g, row, col);
+        g.dispose();
+    }
+
+    // redraw the dirty cells in all cached tiles, and schedule the
+    // visible changed area for repainting
+    void refresh()
+    {
+        Rectangle visible = getVisibleRect();
+        Rectangle[] changed = new Rectangle[1];
+        board.drainDirty(index -> {
+            Rectangle area = cellArea(index / board.getCols(), index % board.getCols());
+            for (int ty = area.y / TILE_SIZE; ty <= (area.y + area.height - 1) / TILE_SIZE; ty++) {
+                for (int tx = area.x / TILE_SIZE; tx <= (area.x + area.width - 1) / TILE_SIZE; tx++) {
+                    BufferedImage image = tiles.get(tileKey(tx, ty));
+                    if (image != null) {
+                        Rectangle inTile = new Rectangle(area);
+                        inTile.translate(-tx*TILE_SIZE, -ty*TILE_SIZE);
+                        drawTile(image, tx, ty, inTile);
+                    }
+                }
+            }
+            if (area.intersects(visible))
+                changed[0] = changed[0] == null ? area : changed[0].union(area);
+        });
+        if (changed[0] != null)
+            repaint(changed[0]);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(getPreferredSize());
+        g.setColor(Color.BLACK);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        Dimension size = getPreferredSize();
+        int tx1 = Math.min((size.width - 1) / TILE_SIZE, (clip.x + clip.width - 1) / TILE_SIZE);
+        int ty1 = Math.min((size.height - 1) / TILE_SIZE, (clip.y + clip.height - 1) / TILE_SIZE);
+        for (int ty = Math.max(0, clip.y / TILE_SIZE); ty <= ty1; ty++)
+            for (int tx = Math.max(0, clip.x / TILE_SIZE); tx <= tx1; tx++)
+                g.drawImage(tile(tx, ty), tx*TILE_SIZE, ty*TILE_SIZE, null);
+    }
+
+    // preferred size of canvas, equal to the board's size at the current zoom
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (cellsPerPixel > 1)
+            return new Dimension((board.getCols() + cellsPerPixel - 1) / cellsPerPixel,
+                                 (board.getRows() + cellsPerPixel - 1) / cellsPerPixel);
+        return new Dimension(board.getCols()*pixelsPerCell, board.getRows()*pixelsPerCell);
+    }
+}
@@ -0,0 +1,75 @@
+package amazed.maze;
+
+import java.util.Arrays;
+
+
+/**
+ * Positions of the players on a board at one instant.
+ * <p>
+ * A snapshot only copies the players' positions, and shares the
+ * static tiles with its board; thus, taking one costs time and
+ * memory linear in the number of players and independent of the size
+ * of the board. A snapshot is <em>consistent</em> if no player moved
+ * while it was taken; otherwise, every position is still one the
+ * player actually occupied.
+ */
+
+class BoardSnapshot
+{
+    private final int[] players;
+    private final long[] positions;
+    private final int size;
+    private final long version;
+    private final boolean consistent;
+
+    BoardSnapshot(int[] players, long[] positions, int size, long version, boolean consistent)
+    {
+        this.players = players;
+        this.positions = positions;
+        this.size = size;
+        this.version = version;
+        this.consistent = consistent;
+    }
+
+    // number of players in the snapshot
+    int size()
+    {
+        return size;
+    }
+
+    int getPlayerId(int k)
+    {
+        return players[k];
+    }
+
+    int getRow(int k)
+    {
+        return PlayerRegistry.row(positions[k]);
+    }
+
+    int getCol(int k)
+    {
+        return PlayerRegistry.col(positions[k]);
+    }
+
+    // number of updates to the board's players before the snapshot
+    long getVersion()
+    {
+        return version;
+    }
+
+    boolean isConsistent()
+    {
+        return consistent;
+    }
+
+    // sorted row-major indexes of the cells occupied by some player
+    int[] occupiedCells(int nCols)
+    {
+        int[] cells = new int[size];
+        for (int k = 0; k < size; k++)
+            cells[k] = getRow(k)*nCols + getCol(k);
+        Arrays.sort(cells);
+        return cells;
+    }
+}
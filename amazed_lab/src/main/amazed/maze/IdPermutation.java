@@ -0,0 +1,90 @@
+package amazed.maze;
+
+
+/**
+ * A pseudo-random permutation of the integers <code>0</code> to
+ * <code>size - 1</code>, determined by a seed, that can be computed
+ * in both directions in constant time and memory.
+ * <p>
+ * The permutation is a balanced Feistel network over the smallest
+ * even number of bits that covers <code>size</code>; values that
+ * fall outside the domain are mapped again until they are inside it
+ * (cycle walking), which preserves bijectivity and takes fewer than
+ * four rounds on average.
+ */
+
+class IdPermutation
+{
+    private static final int ROUNDS = 4;
+
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] keys = new long[ROUNDS];
+
+    IdPermutation(long size, long seed)
+    {
+        this.size = size;
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1));
+        halfBits = Math.max(1, (bits + 1) / 2);
+        halfMask = (1L << halfBits) - 1;
+        long state = seed;
+        for (int k = 0; k < ROUNDS; k++) {
+            state += 0x9e3779b97f4a7c15L;
+            keys[k] = mix(state);
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private long round(long half, int k)
+    {
+        return mix(half ^ keys[k]) & halfMask;
+    }
+
+    private long encrypt(long x)
+    {
+        long left = x >>> halfBits, right = x & halfMask;
+        for (int k = 0; k < ROUNDS; k++) {
+            long next = left ^ round(right, k);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private long decrypt(long x)
+    {
+        long left = x >>> halfBits, right = x & halfMask;
+        for (int k = ROUNDS - 1; k >= 0; k--) {
+            long previous = right ^ round(left, k);
+            right = left;
+            left = previous;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // image of x, with 0 <= x < size
+    long apply(long x)
+    {
+        long y = encrypt(x);
+        while (y >= size)
+            y = encrypt(y);
+        return y;
+    }
+
+    // the x such that apply(x) == y, with 0 <= y < size
+    long inverse(long y)
+    {
+        long x = decrypt(y);
+        while (x >= size)
+            x = decrypt(x);
+        return x;
+    }
+}
@@ -6,21 +6,37 @@ import javax.swing.ImageIcon;
 import java.io.File;
 
 
+// images of tiles and players, used only by the GUI; they are read
+// from directory `images' the first time one is requested, so runs
+// without graphical display never load them
 class ImageFactory
 {
     private static String imgDir = "images";
 
-    private static Hashtable<String, Image> images = initializeImages();
-    private static Hashtable<String, Character> characters = initializeCharacters();
+    private static final String playerFileName = "player";
+    private static final int nPlayerImages = 4;
+
+    // initialized on first use of the holder class
+    private static class Images
+    {
+        static final Hashtable<String, Image> images = initializeImages();
+        static final Image[] players = initializePlayers();
+    }
 
     static Image getImage(String name)
     {
-        return images.get(name);
+        return Images.images.get(name);
+    }
+
+    static Image getImage(Tile tile)
+    {
+        return getImage(tile.getName());
     }
 
-    static Character getText(String name)
+    // image of player with identifier playerId
+    static Image getPlayerImage(int playerId)
     {
-        return characters.get(name);
+        return Images.players[Math.floorMod(playerId, nPlayerImages)];
     }
 
     private static Hashtable<String, Image> initializeImages()
@@ -39,6 +55,16 @@ class ImageFactory
         return images;
     }
 
+    private static Image[] initializePlayers()
+    {
+        Image[] players = new Image[nPlayerImages];
+        for (int k = 0; k < nPlayerImages; k++) {
+            Image image = getImage(playerFileName + Integer.toString(k + 1));
+            players[k] = image == null ? getImage(playerFileName) : image;
+        }
+        return players;
+    }
+
     private static String graphicName(File f)
     {
         String fname = f.getName();
@@ -51,33 +77,4 @@ class ImageFactory
             return null;
         }
     }
-
-    private static Hashtable<String, Character> initializeCharacters()
-    {
-        Hashtable<String, Character> characters = new Hashtable<>();
-        for (String name : images.keySet()) {
-            Character ch;
-            switch (name) {
-            case "empty":
-                ch = '.';
-                break;
-            case "brick":
-                ch = '*';
-                break;
-            case "solid":
-                ch = '#';
-                break;
-            case "marked":
-                ch = '+';
-                break;
-            case "heart":
-                ch = 'v';
-                break;
-            default:
-                ch = '?';
-            }
-            characters.put(name, ch);
-        }
-        return characters;
-    }
 }
@@ -0,0 +1,101 @@
+package amazed.maze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Fast content hash of map files: 64-bit xxHash (XXH64, seed 0) of
+ * the file's bytes, read through memory mappings.
+ */
+
+class MapHash
+{
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    // bytes mapped at a time; a multiple of the 32-byte stripe
+    private static final long CHUNK = 1L << 30;
+
+    private MapHash()
+    {
+    }
+
+    private static long round(long acc, long input)
+    {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long value)
+    {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+
+    // hash of the content of file `filename'
+    static long of(String filename)
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long stripes = size - size % 32;
+            long pos = 0, h;
+            if (size >= 32) {
+                long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+                while (pos < stripes) {
+                    long length = Math.min(CHUNK, stripes - pos);
+                    ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, pos, length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                    for (int k = 0; k < length; k += 32) {
+                        v1 = round(v1, bytes.getLong(k));
+                        v2 = round(v2, bytes.getLong(k + 8));
+                        v3 = round(v3, bytes.getLong(k + 16));
+                        v4 = round(v4, bytes.getLong(k + 24));
+                    }
+                    pos += length;
+                }
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else
+                h = P5;
+            h += size;
+
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - pos)).order(ByteOrder.LITTLE_ENDIAN);
+            while (tail.hasRemaining() && channel.read(tail, pos + tail.position()) > 0)
+                ;
+            tail.flip();
+            while (tail.remaining() >= 8) {
+                h ^= round(0, tail.getLong());
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (tail.remaining() >= 4) {
+                h ^= (tail.getInt() & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+            }
+            while (tail.hasRemaining()) {
+                h ^= (tail.get() & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Sidecar index of a map file: the grid of tiles of the map, as
+ * stored by <code>Board</code>, saved next to the map file so that
+ * later runs can load it instead of parsing the map.
+ * <p>
+ * The index of map <code>MAP</code> is file <code>MAP.idx</code>. It
+ * begins with a header (magic number, format version, layout of the
+ * grid, and the size, modification time and content hash of the map
+ * file when the index was written), followed by the number of rows
+ * and columns, whether the map is weighted, and the bytes of the
+ * grid. An index is only used if its header matches the map file as
+ * it is now; node identifiers are not stored, since they are computed
+ * from the seed of each run, nor are adjacency or goals, which are
+ * read off the grid in constant time. The grid can also be mapped
+ * copy-on-write into an <code>OffHeapArray</code> instead of being
+ * read, so that loading a large map takes neither time nor heap.
+ */
+
+class MapIndex
+{
+    static final int MAGIC = 0x414d5a49; // "AMZI"
+    static final int VERSION = 2;
+    static final String SUFFIX = ".idx";
+
+    final int nRows;
+    final int nCols;
+    final boolean weighted;
+    // exactly one of tiles and offHeapTiles is not null
+    final byte[] tiles;
+    final OffHeapArray offHeapTiles;
+
+    // bytes before the grid: magic, version, layout, size, time,
+    // hash, rows, columns, weighted, and length of the grid
+    private static final long HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4 + 1 + 4;
+
+    private MapIndex(int nRows, int nCols, boolean weighted, byte[] tiles,
+                     OffHeapArray offHeapTiles)
+    {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.weighted = weighted;
+        this.tiles = tiles;
+        this.offHeapTiles = offHeapTiles;
+    }
+
+    // writes the bytes of a grid
+    interface TileWriter
+    {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // the index of map `mapFile' with grid layout `layout', or null
+    // if there is none, or it does not match the map or the layout;
+    // a grid that goes off the heap is mapped instead of read
+    static MapIndex read(String mapFile, int layout)
+    {
+        File map = new File(mapFile), index = new File(mapFile + SUFFIX);
+        if (!index.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != layout)
+                return null;
+            if (in.readLong() != map.length() || in.readLong() != map.lastModified()
+                || in.readLong() != MapHash.of(mapFile))
+                return null;
+            int nRows = in.readInt(), nCols = in.readInt();
+            boolean weighted = in.readBoolean();
+            int length = in.readInt();
+            if (OffHeapArray.isUsedFor(length))
+                return new MapIndex(nRows, nCols, weighted, null,
+                                    OffHeapArray.map(index, HEADER_BYTES, length));
+            byte[] tiles = new byte[length];
+            in.readFully(tiles);
+            return new MapIndex(nRows, nCols, weighted, tiles, null);
+        } catch (IOException e) {
+            // a damaged, or read-only mapped, index is ignored, and
+            // the map parsed instead
+            return null;
+        }
+    }
+
+    // write the index of map `mapFile', whose grid has layout `layout'
+    // and `length' bytes, written by `tiles'
+    static void write(String mapFile, int layout, int nRows, int nCols, boolean weighted,
+                      long length, TileWriter tiles)
+    throws IOException
+    {
+        File map = new File(mapFile), index = new File(mapFile + SUFFIX);
+        File temporary = new File(mapFile + SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(layout);
+            out.writeLong(map.length());
+            out.writeLong(map.lastModified());
+            out.writeLong(MapHash.of(mapFile));
+            out.writeInt(nRows);
+            out.writeInt(nCols);
+            out.writeBoolean(weighted);
+            out.writeInt((int) length);
+            tiles.writeTo(out);
+        }
+        // readers see either no index or a complete one
+        if (!temporary.renameTo(index))
+            throw new IOException("cannot create " + index);
+    }
+}
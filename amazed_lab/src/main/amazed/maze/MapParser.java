@@ -0,0 +1,407 @@
+package amazed.maze;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Parser of map files into a packed grid of tiles: one byte per cell,
+ * in row-major order, holding the ordinal of the cell's
+ * <code>Tile</code>.
+ * <p>
+ * Large maps are parsed in parallel: the part of the file after the
+ * size declaration is split into byte ranges that begin and end at
+ * line boundaries, and a fork/join pool first counts the rows in
+ * every range and then, once every range knows its first row, parses
+ * all ranges concurrently into the shared grid. This requires that
+ * every line of the map specification contains either no cells or a
+ * whole row; maps that split rows across lines are parsed
+ * sequentially. Unrecognized symbols are reported once, as a summary,
+ * after parsing.
+ * <p>
+ * A size declaration <code>$ROWS,COLUMNS,weighted</code> declares a
+ * weighted map, where moving onto a cell costs according to its tile
+ * (see <code>Tile</code>) and bricks are passable.
+ */
+
+class MapParser
+{
+    // files smaller than this are parsed sequentially
+    private static final long PARALLEL_SIZE = 1L << 20;
+    // target size of the byte range parsed by each task
+    private static final long RANGE_SIZE = 16L << 20;
+    // number of unrecognized symbols reported individually
+    private static final int MAX_REPORTED = 5;
+
+    private static final Pattern HEADER = Pattern.compile("^\\$(\\d+),(\\d+)(,weighted)?$");
+
+    // character --> ordinal of tile denoted by it, or -1
+    private static final byte[] TILES = new byte[256];
+    static {
+        Arrays.fill(TILES, (byte) -1);
+        for (Tile tile: new Tile[] { Tile.EMPTY, Tile.SOLID, Tile.BRICK, Tile.HEART,
+                                     Tile.SAND, Tile.MUD })
+            TILES[tile.getChar() & 0xff] = (byte) tile.ordinal();
+    }
+
+    private final String filename;
+    private final ForkJoinPool pool;
+    private int nRows = 0;
+    private int nCols = 0;
+    private boolean weighted = false;
+
+    // unrecognized symbols found while parsing
+    private long errors = 0;
+    private final List<String> reported = new ArrayList<>();
+
+    MapParser(String filename, ForkJoinPool pool)
+    {
+        this.filename = filename;
+        this.pool = pool;
+    }
+
+    int getRows()
+    {
+        return nRows;
+    }
+
+    int getCols()
+    {
+        return nCols;
+    }
+
+    boolean isWeighted()
+    {
+        return weighted;
+    }
+
+    private static boolean isWhitespace(int ch)
+    {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == 0x0B || ch == '\f' || ch == '\r';
+    }
+
+    private synchronized void unrecognized(int ch, int row, int col)
+    {
+        errors++;
+        if (reported.size() < MAX_REPORTED)
+            reported.add("'" + Character.toString((char) ch) + "' on row " + row + " column " + col);
+    }
+
+    private synchronized void mergeErrors(Range range)
+    {
+        errors += range.errors;
+        for (String error: range.reported)
+            if (reported.size() < MAX_REPORTED)
+                reported.add(error);
+    }
+
+    // print a summary of all unrecognized symbols, if any
+    void reportErrors()
+    {
+        if (errors == 0)
+            return;
+        System.out.println("Unrecognized symbols: " + errors + " (first: "
+                           + String.join(", ", reported) + ")");
+        System.out.println("... using empty cells instead.");
+    }
+
+    /**
+     * Parses the map, and returns the grid of tile ordinals.
+     */
+    byte[] parse()
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= PARALLEL_SIZE && pool.getParallelism() > 1) {
+                long dataStart = readHeader(channel);
+                if (dataStart >= 0) {
+                    byte[] tiles = parseParallel(channel, dataStart, size);
+                    if (tiles != null)
+                        return tiles;
+                }
+                errors = 0;
+                reported.clear();
+            }
+        }
+        return parseSequential();
+    }
+
+    // parse the size declaration, and return the offset of the
+    // following line; return -1 if there is no declaration, or cells
+    // come before it
+    private long readHeader(FileChannel channel)
+    throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        StringBuilder line = new StringBuilder();
+        long offset = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0)
+                return -1;
+            for (int k = 0; k < read; k++) {
+                int ch = buffer.get(k) & 0xff;
+                if (ch != '\n') {
+                    if (!isWhitespace(ch))
+                        line.append((char) ch);
+                    continue;
+                }
+                if (line.length() > 0 && line.charAt(0) == '$') {
+                    Matcher m = HEADER.matcher(line);
+                    if (!m.find())
+                        return -1;
+                    nRows = Integer.parseInt(m.group(1));
+                    nCols = Integer.parseInt(m.group(2));
+                    weighted = m.group(3) != null;
+                    return offset + k + 1;
+                }
+                if (line.length() > 0 && line.charAt(0) != '@')
+                    return -1;
+                line.setLength(0);
+            }
+            offset += read;
+        }
+    }
+
+    // one byte range of the map specification, starting and ending at a line boundary
+    private class Range
+    {
+        final long start, end;
+        int firstRow;
+        long errors = 0;
+        final List<String> reported = new ArrayList<>();
+
+        Range(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        // number of rows in the range, or -1 if a line has neither
+        // zero nor nCols cells
+        int countRows(MappedByteBuffer bytes)
+        {
+            int rows = 0, cells = 0;
+            boolean comment = false;
+            for (int k = 0; k < bytes.limit(); k++) {
+                int ch = bytes.get(k) & 0xff;
+                if (ch == '\n') {
+                    if (cells == nCols)
+                        rows++;
+                    else if (cells != 0)
+                        return -1;
+                    cells = 0;
+                    comment = false;
+                } else if (comment || isWhitespace(ch))
+                    continue;
+                else if (ch == '@')
+                    comment = true;
+                else if (ch == '$')
+                    return -1;
+                else
+                    cells++;
+            }
+            if (cells == nCols)
+                rows++;
+            else if (cells != 0)
+                return -1;
+            return rows;
+        }
+
+        void parseRows(MappedByteBuffer bytes, byte[] tiles)
+        {
+            int row = firstRow, col = 0;
+            boolean comment = false;
+            for (int k = 0; k < bytes.limit() && row < nRows; k++) {
+                int ch = bytes.get(k) & 0xff;
+                if (ch == '\n') {
+                    if (col > 0)
+                        row++;
+                    col = 0;
+                    comment = false;
+                } else if (comment || isWhitespace(ch))
+                    continue;
+                else if (ch == '@')
+                    comment = true;
+                else {
+                    byte tile = TILES[ch];
+                    if (tile < 0) {
+                        errors++;
+                        if (reported.size() < MAX_REPORTED)
+                            reported.add("'" + Character.toString((char) ch) + "' on row "
+                                         + row + " column " + col);
+                        tile = (byte) Tile.EMPTY.ordinal();
+                    }
+                    tiles[row*nCols + col] = tile;
+                    col++;
+                }
+            }
+        }
+    }
+
+    private byte[] parseParallel(FileChannel channel, long dataStart, long size)
+    throws IOException
+    {
+        if ((long) nRows*nCols > Integer.MAX_VALUE - 8)
+            return null;
+        List<Range> ranges = splitLines(channel, dataStart, size);
+        List<MappedByteBuffer> buffers = new ArrayList<>(ranges.size());
+        for (Range range: ranges)
+            buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, range.start, range.end - range.start));
+
+        // pass 1: count rows per range
+        List<RecursiveTask<Integer>> counts = new ArrayList<>(ranges.size());
+        for (int k = 0; k < ranges.size(); k++) {
+            Range range = ranges.get(k);
+            MappedByteBuffer bytes = buffers.get(k);
+            counts.add(new RecursiveTask<Integer>() {
+                    @Override
+                    protected Integer compute() {
+                        return range.countRows(bytes);
+                    }
+                });
+        }
+        pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(counts);
+                    return null;
+                }
+            });
+        int row = 0;
+        for (int k = 0; k < ranges.size(); k++) {
+            int rows = counts.get(k).join();
+            if (rows < 0)
+                return null;
+            ranges.get(k).firstRow = row;
+            row += rows;
+        }
+
+        // pass 2: parse ranges into the shared grid
+        byte[] tiles = new byte[nRows*nCols];
+        List<RecursiveTask<Void>> parses = new ArrayList<>(ranges.size());
+        for (int k = 0; k < ranges.size(); k++) {
+            Range range = ranges.get(k);
+            MappedByteBuffer bytes = buffers.get(k);
+            if (range.firstRow >= nRows)
+                break;
+            parses.add(new RecursiveTask<Void>() {
+                    @Override
+                    protected Void compute() {
+                        range.parseRows(bytes, tiles);
+                        return null;
+                    }
+                });
+        }
+        pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(parses);
+                    return null;
+                }
+            });
+        for (Range range: ranges)
+            mergeErrors(range);
+        return tiles;
+    }
+
+    // split [start, end) into ranges of about RANGE_SIZE bytes, each
+    // ending just after a newline (or at end)
+    private List<Range> splitLines(FileChannel channel, long start, long end)
+    throws IOException
+    {
+        int nRanges = (int) Math.max(4L*pool.getParallelism(), (end - start) / RANGE_SIZE);
+        long step = Math.max(1, (end - start) / nRanges);
+        List<Range> ranges = new ArrayList<>(nRanges);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long from = start;
+        while (from < end) {
+            long to = Math.min(end, from + step);
+            // advance to just after the next newline
+            search:
+            while (to < end) {
+                buffer.clear();
+                int read = channel.read(buffer, to);
+                if (read <= 0) {
+                    to = end;
+                    break;
+                }
+                for (int k = 0; k < read; k++) {
+                    if (buffer.get(k) == '\n') {
+                        to += k + 1;
+                        break search;
+                    }
+                }
+                to += read;
+            }
+            ranges.add(new Range(from, Math.min(to, end)));
+            from = to;
+        }
+        return ranges;
+    }
+
+    // the original line-by-line parser, which accepts rows split
+    // across lines
+    private byte[] parseSequential()
+    throws IOException
+    {
+        byte[] tiles = null;
+        int row = 0, col = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // remove whitespaces
+                line = line.replaceAll("\\s", "");
+                line_loop:
+                for (int k = 0; k < line.length(); k++) {
+                    int ch = line.charAt(k);
+                    switch (ch) {
+                    case '@':
+                        break line_loop;
+                    case '$':
+                        Matcher m = HEADER.matcher(line);
+                        if (m.find()) {
+                            nRows = Integer.parseInt(m.group(1));
+                            nCols = Integer.parseInt(m.group(2));
+                            weighted = m.group(3) != null;
+                            tiles = new byte[nRows*nCols];
+                        }
+                        break line_loop;
+                    default:
+                        // Ignore rows and columns beyond the declared ones
+                        if (row < nRows && col < nCols) {
+                            byte tile = ch < TILES.length ? TILES[ch] : -1;
+                            if (tile < 0) {
+                                unrecognized(ch, row, col);
+                                tile = (byte) Tile.EMPTY.ordinal();
+                            }
+                            tiles[row*nCols + col] = tile;
+                            col += 1;
+                        }
+                    }
+                }
+                if (nCols > 0 && col == nCols) {
+                    row += 1;
+                    col = 0;
+                }
+            }
+        }
+        return tiles == null ? new byte[0] : tiles;
+    }
+}
@@ -2,11 +2,14 @@ package amazed.maze;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.HashSet;
-import java.util.ListIterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
 
 /**
  * <code>Maze</code> is the main public class through which methods
@@ -17,17 +20,29 @@ import java.util.Set;
  * <em>cell</em>, which can be thought as a room in the maze.  Every
  * node has an identifier &mdash; an integer whose value is unique
  * within the maze.  Node identifiers are generated randomly at every
- * object creation, and thus they are not persistent or deterministic.
+ * object creation, and thus they are not persistent or deterministic,
+ * unless the maze is created with a seed: mazes created from the same
+ * map with the same seed have the same identifiers.
  * <p>
  * Exploration of a maze begins at the start node, whose identifier
  * is returned by method <code>start</code>.  Given the identifier
  * of a node, method <code>neighbors</code> returns the set of
  * identifiers of all nodes adjacent to it.  Method
- * <code>hasGoal</code> determines if a given node contains a goal.
+ * <code>hasGoal</code> determines if a given node contains a goal,
+ * and method <code>isValidPath</code> checks a path found by a solver.
  * <p>
  * Finally, methods <code>spawn</code> and <code>move</code> animate
  * icons of players that move around the maze in its graphical
  * representation.
+ * <p>
+ * Nodes are laid out on a grid of <code>rows()</code> by
+ * <code>cols()</code> cells. Solvers that exploit the grid structure
+ * can convert between node identifiers and positions with methods
+ * <code>rowOf</code>, <code>colOf</code>, and <code>idAt</code>.
+ * <p>
+ * A maze can change while it is being explored: method
+ * <code>setTile</code> replaces the tile of a cell, and notifies all
+ * listeners registered with <code>addTileListener</code>.
  *
  * @author  Carlo A. Furia
  */
@@ -43,6 +58,10 @@ public class Maze
 
     private int delay = 500;
     private boolean animate = true;
+    // if not null, records every player move
+    private TraceRecorder recorder = null;
+    // notified with the node id of every cell whose tile changes
+    private final List<IntConsumer> tileListeners = new CopyOnWriteArrayList<>();
 
 
     /**
@@ -55,6 +74,32 @@ public class Maze
         board = new Board(filename);
     }
 
+    /**
+     * Creates a maze by reading a map from file, with node
+     * identifiers determined by a seed.
+     *
+     * @param filename   the name of the text file containing the map
+     * @param seed       the seed that determines the node identifiers
+     */
+    Maze(String filename, long seed)
+    {
+        board = new Board(filename, seed);
+    }
+
+    /**
+     * Creates a maze by reading a map from file, with node
+     * identifiers determined by a seed, using a given pool for
+     * parallel parsing.
+     *
+     * @param filename   the name of the text file containing the map
+     * @param seed       the seed that determines the node identifiers
+     * @param pool       the pool that runs parallel parsing tasks
+     */
+    Maze(String filename, long seed, ForkJoinPool pool)
+    {
+        board = new Board(filename, seed, pool);
+    }
+
     // initialize Maze wrapping given board
     Maze(Board board)
     {
@@ -73,6 +118,11 @@ public class Maze
         this.animate = animate;
     }
 
+    void setRecorder(TraceRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
     /**
      * Returns the unique identifier of the start node, corresponding
      * to the top-left cell in the maze.
@@ -81,7 +131,7 @@ public class Maze
      */
     public int start()
     {
-        return board.getCell(0, 0).getId();
+        return board.getId(0, 0);
     }
 
     /**
@@ -101,11 +151,125 @@ public class Maze
         for (Direction direction: Direction.values()) {
             Position newPosition = board.move(position, direction);
             if (newPosition != null)
-                neighbors.add(board.getCell(newPosition).getId());
+                neighbors.add(board.getId(newPosition.getRow(), newPosition.getCol()));
         }
         return neighbors;
     }
 
+    /**
+     * Returns the number of rows of cells in the maze.
+     *
+     * @return   the number of rows in the maze
+     */
+    public int rows()
+    {
+        return board.getRows();
+    }
+
+    /**
+     * Returns the number of columns of cells in the maze.
+     *
+     * @return   the number of columns in the maze
+     */
+    public int cols()
+    {
+        return board.getCols();
+    }
+
+    /**
+     * Returns the number of cells in the maze, that is
+     * <code>rows()*cols()</code>. Solvers can use it to size arrays
+     * indexed by row-major cell index, <code>row*cols() + col</code>.
+     *
+     * @return   the number of cells in the maze
+     */
+    public int size()
+    {
+        return board.getRows()*board.getCols();
+    }
+
+    /**
+     * Returns the row of the cell of a given node.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     the row of node <code>id</code>, counting from 0 at
+     *             the top; -1 if there is no such node
+     */
+    public int rowOf(int id)
+    {
+        int index = board.indexOf(id);
+        return index < 0 ? -1 : index / board.getCols();
+    }
+
+    /**
+     * Returns the column of the cell of a given node.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     the column of node <code>id</code>, counting from 0 at
+     *             the left; -1 if there is no such node
+     */
+    public int colOf(int id)
+    {
+        int index = board.indexOf(id);
+        return index < 0 ? -1 : index % board.getCols();
+    }
+
+    /**
+     * Returns the row-major index of the cell of a given node, that
+     * is, <code>rowOf(id)*cols() + colOf(id)</code>, at the cost of a
+     * single lookup.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     the index of the cell of node <code>id</code>,
+     *             between 0 and <code>size() - 1</code>; -1 if there
+     *             is no such node
+     */
+    public int indexOf(int id)
+    {
+        return board.indexOf(id);
+    }
+
+    /**
+     * Returns the identifier of the node in a given row and column.
+     *
+     * @param row   the row of a cell in the maze
+     * @param col   the column of a cell in the maze
+     * @return      the identifier of the node in <code>row</code>,
+     *              <code>col</code>
+     */
+    public int idAt(int row, int col)
+    {
+        return board.getId(row, col);
+    }
+
+    /**
+     * Tests whether the cell in a given row and column can be
+     * entered.
+     *
+     * @param row   the row of a cell
+     * @param col   the column of a cell
+     * @return      <code>true</code> if the cell is in the maze and
+     *              accessible; <code>false</code> otherwise
+     */
+    public boolean isAccessible(int row, int col)
+    {
+        return board.isAccessible(row, col);
+    }
+
+    /**
+     * Tests whether the cell in a given row and column contains a
+     * goal.
+     *
+     * @param row   the row of a cell in the maze
+     * @param col   the column of a cell in the maze
+     * @return      <code>true</code> if the cell contains a goal;
+     *              <code>false</code> otherwise
+     */
+    public boolean hasGoal(int row, int col)
+    {
+        return board.getTile(row, col) == Tile.HEART;
+    }
+
     /**
      * Tests whether a given node contains a goal.
      *
@@ -115,7 +279,116 @@ public class Maze
      */
     public boolean hasGoal(int id)
     {
-        return board.getCell(id).isHeart();
+        int index = board.indexOf(id);
+        return index >= 0 && board.isHeart(index);
+    }
+
+    /**
+     * Tests whether the maze is weighted, that is whether moving onto
+     * different nodes has different costs. In weighted mazes, bricks
+     * are passable at a high cost.
+     *
+     * @return   <code>true</code> if the maze is weighted;
+     *           <code>false</code> if every move costs 1
+     */
+    public boolean isWeighted()
+    {
+        return board.isWeighted();
+    }
+
+    /**
+     * Returns the cost of moving onto a given accessible node: the
+     * cost of its tile in weighted mazes, and 1 in unweighted mazes.
+     *
+     * @param id   the identifier of an accessible node in the maze
+     * @return     the cost of moving onto the node, at least 1; -1 if
+     *             the node is not accessible
+     */
+    public int cost(int id)
+    {
+        int index = board.indexOf(id);
+        if (index < 0 || !board.isAccessible(index))
+            return -1;
+        return board.getCost(index / board.getCols(), index % board.getCols());
+    }
+
+    /**
+     * Returns the cost of moving onto the accessible cell in a given
+     * row and column, as <code>cost(idAt(row, col))</code> does.
+     *
+     * @param row   a row of the maze
+     * @param col   a column of the maze
+     * @return      the cost of moving onto the cell, at least 1; -1 if
+     *              the cell is not accessible
+     */
+    public int cost(int row, int col)
+    {
+        return board.isAccessible(row, col) ? board.getCost(row, col) : -1;
+    }
+
+    /**
+     * Returns an upper bound of the cost of moving onto any node of
+     * the maze.
+     *
+     * @return   the largest cost that <code>cost</code> can return
+     */
+    public int maxCost()
+    {
+        return board.isWeighted() ? Tile.maxCost() : 1;
+    }
+
+    // total cost of the moves along path, which must be valid
+    long pathCost(List<Integer> path)
+    {
+        long total = 0;
+        for (int k = 1; k < path.size(); k++)
+            total += cost(path.get(k));
+        return total;
+    }
+
+    /**
+     * Tests whether a given node can be entered.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     <code>true</code> if the node with identifier <code>id</code>
+     *             is accessible; <code>false</code> otherwise
+     */
+    public boolean isAccessible(int id)
+    {
+        int index = board.indexOf(id);
+        return index >= 0 && board.isAccessible(index);
+    }
+
+    /**
+     * Replaces the tile of the cell in a given row and column, for
+     * example to add or remove a wall or to move a goal, and notifies
+     * all tile listeners. The node keeps its identifier. This method
+     * can be called while other threads explore the maze; they see
+     * either the old or the new tile.
+     *
+     * @param row    the row of the cell, counting from 0 at the top
+     * @param col    the column of the cell, counting from 0 at the left
+     * @param tile   the new tile of the cell
+     */
+    public void setTile(int row, int col, Tile tile)
+    {
+        if (!board.isOnBoard(row, col))
+            return;
+        board.setTile(row, col, tile);
+        int id = board.getId(row, col);
+        for (IntConsumer listener: tileListeners)
+            listener.accept(id);
+    }
+
+    /**
+     * Registers a listener that is called with the node identifier
+     * of every cell whose tile is changed by <code>setTile</code>.
+     *
+     * @param listener   the listener to be registered
+     */
+    public void addTileListener(IntConsumer listener)
+    {
+        tileListeners.add(listener);
     }
 
     /**
@@ -128,21 +401,92 @@ public class Maze
      *               nodes, and ends with a goal node;
      *               <code>false</code> otherwise
      */
-    boolean isValidPath(List<Integer> path)
+    public boolean isValidPath(List<Integer> path)
     {
-        if (path.isEmpty())
+        int[] ids = new int[path.size()];
+        int k = 0;
+        for (int id: path)
+            ids[k++] = id;
+        return isValidPath(ids);
+    }
+
+    // paths at least this long are validated in parallel chunks
+    private static final int PARALLEL_PATH_LENGTH = 1 << 16;
+
+    /**
+     * Tests whether an array of node identifiers corresponds to a
+     * connected path from the start node to a goal. Adjacency is
+     * checked arithmetically on the nodes' positions; long paths are
+     * checked in parallel chunks in the current fork/join pool, or in
+     * the common pool.
+     *
+     * @param path   an array of identifiers nodes in the maze
+     * @return       <code>true</code> if <code>path</code> begins with the
+     *               start node, follows a connected chain of adjacent
+     *               nodes, and ends with a goal node;
+     *               <code>false</code> otherwise
+     */
+    boolean isValidPath(int[] path)
+    {
+        if (path.length == 0 || path[0] != start())
             return false;
-        ListIterator<Integer> iter = path.listIterator();
-        int prev = 0, curr = iter.next();
-        if (curr != start())
+        int last = board.indexOf(path[path.length - 1]);
+        if (last < 0 || !board.isHeart(last))
             return false;
-        while (iter.hasNext()) {
+        if (path.length < PARALLEL_PATH_LENGTH)
+            return isConnected(path, 1, path.length);
+        return new ConnectedCheck(path, 1, path.length).invoke();
+    }
+
+    // does every node path[k] with from <= k < to follow path[k-1]?
+    private boolean isConnected(int[] path, int from, int to)
+    {
+        int nCols = board.getCols();
+        int prev = board.indexOf(path[from - 1]);
+        if (prev < 0)
+            return false;
+        for (int k = from; k < to; k++) {
+            int curr = board.indexOf(path[k]);
+            if (curr < 0 || !board.isAccessible(curr))
+                return false;
+            int step = curr - prev;
+            boolean adjacent = step == nCols || step == -nCols
+                || (step == 1 && curr % nCols != 0)
+                || (step == -1 && prev % nCols != 0);
+            if (!adjacent)
+                return false;
             prev = curr;
-            curr = iter.next();
-            if (!neighbors(prev).contains(curr))
+        }
+        return true;
+    }
+
+    // checks a segment of a path, splitting it in halves while it is long
+    private class ConnectedCheck extends RecursiveTask<Boolean>
+    {
+        private final int[] path;
+        private final int from, to;
+
+        ConnectedCheck(int[] path, int from, int to)
+        {
+            this.path = path;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Boolean compute()
+        {
+            if (to - from <= PARALLEL_PATH_LENGTH)
+                return isConnected(path, from, to);
+            int middle = (from + to) >>> 1;
+            ConnectedCheck right = new ConnectedCheck(path, middle, to);
+            right.fork();
+            boolean left = new ConnectedCheck(path, from, middle).compute();
+            // if the left half fails, don't wait for the right half
+            if (!left && right.tryUnfork())
                 return false;
+            return right.join() && left;
         }
-        return hasGoal(curr);
     }
 
     /**
@@ -153,9 +497,16 @@ public class Maze
      */
     public int newPlayer(int id)
     {
-        if (!animate)
+        int playerId;
+        if (animate)
+            playerId = board.newPlayer(id);
+        else if (recorder != null)
+            playerId = board.nextPlayerId();
+        else
             return 0;
-        return board.newPlayer(id);
+        if (recorder != null)
+            recorder.record(playerId, board.indexOf(id));
+        return playerId;
     }
 
     /**
@@ -182,16 +533,18 @@ public class Maze
      */
     public void move(int playerId, int id)
     {
+        if (recorder != null)
+            recorder.record(playerId, board.indexOf(id));
         if (!animate)
             return;
-        Player player = board.getPlayer(playerId);
         try {
             Thread.sleep(delay);
         } catch (InterruptedException e) {
             System.out.println("Interrupted!");
         }
-        if (player != null)
-            player.move(id);
+        Position position = board.getPosition(id);
+        if (position != null && board.isAccessible(position.getRow(), position.getCol()))
+            board.move(playerId, position.getRow(), position.getCol());
     }
 
     /**
@@ -0,0 +1,336 @@
+package amazed.maze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Array of bytes outside the Java heap, for search state and grids
+ * too large to keep on the heap.
+ * <p>
+ * The bytes are split into segments of at most 1 GB, each a direct
+ * <code>ByteBuffer</code> or, if a directory is configured, a
+ * <code>MappedByteBuffer</code> of a temporary file in that
+ * directory, which is deleted as soon as it is mapped. Direct buffers
+ * count towards the limit set by JVM option
+ * <code>-XX:MaxDirectMemorySize</code>, which is the maximum heap
+ * size by default; mapped files are only limited by the address
+ * space and the disk, and the operating system pages them in and out
+ * as needed. Either way, the garbage collector only sees the few
+ * buffer objects, and never scans nor copies their content; the
+ * memory is released when the array is no longer reachable.
+ * <p>
+ * The array is accessed as bytes, <code>int</code>s, or
+ * <code>long</code>s, by index of element of that type, in native
+ * byte order. <code>long</code> elements can be updated atomically
+ * with <code>compareAndSetLong</code>, so that the array can replace
+ * an <code>AtomicLongArray</code>.
+ * <p>
+ * Whether arrays of a given size should go off the heap is decided
+ * by a process-wide policy, set with <code>configure</code>: by
+ * default, no array does.
+ */
+
+public final class OffHeapArray
+{
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final VarHandle INTS =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // arrays of at least this many bytes go off the heap; -1 if none does
+    private static volatile long threshold = -1;
+    // directory of mapped files; null for direct buffers
+    private static volatile File directory = null;
+
+    private final ByteBuffer[] segments;
+    private final long bytes;
+
+    private OffHeapArray(ByteBuffer[] segments, long bytes)
+    {
+        this.segments = segments;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Sets which arrays go off the heap, and where.
+     *
+     * @param threshold   arrays of at least this many bytes are allocated
+     *                    off the heap; if negative, no array is
+     * @param directory   the name of the directory of the temporary files
+     *                    mapped by off-heap arrays; if <code>null</code>,
+     *                    off-heap arrays use direct buffers
+     */
+    public static void configure(long threshold, String directory)
+    {
+        OffHeapArray.threshold = threshold;
+        OffHeapArray.directory = directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Tests whether an array of <code>bytes</code> bytes should be
+     * allocated off the heap, according to the policy set with
+     * <code>configure</code>.
+     *
+     * @param bytes   the size of the array
+     * @return        <code>true</code> if the array should be an
+     *                <code>OffHeapArray</code>; <code>false</code> if it
+     *                should stay on the heap
+     */
+    public static boolean isUsedFor(long bytes)
+    {
+        long t = threshold;
+        return t >= 0 && bytes >= t;
+    }
+
+    /**
+     * Allocates an array of <code>bytes</code> bytes, all zero, in a
+     * direct buffer or a mapped temporary file, as configured.
+     *
+     * @param bytes   the size of the array
+     * @return        the new array
+     * @throws UncheckedIOException   if the temporary file cannot be
+     *                                created or mapped
+     * @throws OutOfMemoryError       if direct memory is exhausted
+     */
+    public static OffHeapArray allocate(long bytes)
+    {
+        File dir = directory;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        if (dir == null) {
+            for (int s = 0; s < segments.length; s++)
+                segments[s] = ByteBuffer.allocateDirect(segmentSize(bytes, s));
+            return new OffHeapArray(segments, bytes);
+        }
+        try {
+            File file = File.createTempFile("amazed", ".heap", dir);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                // a sparse file: pages are only written when touched
+                raf.setLength(bytes);
+                FileChannel channel = raf.getChannel();
+                for (int s = 0; s < segments.length; s++)
+                    segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                                              (long) s << SEGMENT_BITS, segmentSize(bytes, s));
+            } finally {
+                // mappings outlive the file's name and channel
+                file.delete();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot map off-heap array", e);
+        }
+        return new OffHeapArray(segments, bytes);
+    }
+
+    // copy-on-write mapping of bytes bytes of file, from offset: the
+    // array sees the file's content, and writes to the array stay
+    // private; the file must be writable, though it is never written
+    static OffHeapArray map(File file, long offset, long bytes)
+    throws IOException
+    {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < offset + bytes)
+                throw new IOException("truncated file " + file);
+            for (int s = 0; s < segments.length; s++)
+                segments[s] = channel.map(FileChannel.MapMode.PRIVATE,
+                                          offset + ((long) s << SEGMENT_BITS), segmentSize(bytes, s));
+        }
+        return new OffHeapArray(segments, bytes);
+    }
+
+    private static int segmentSize(long bytes, int segment)
+    {
+        return (int) Math.min(1L << SEGMENT_BITS, bytes - ((long) segment << SEGMENT_BITS));
+    }
+
+    /**
+     * Returns the size of this array.
+     *
+     * @return   the number of bytes of the array
+     */
+    public long size()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns byte <code>index</code>.
+     *
+     * @param index   the index of the byte
+     * @return        the byte
+     */
+    public byte getByte(long index)
+    {
+        return segments[(int) (index >>> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /**
+     * Sets byte <code>index</code> to <code>value</code>.
+     *
+     * @param index   the index of the byte
+     * @param value   the new value
+     */
+    public void setByte(long index, byte value)
+    {
+        segments[(int) (index >>> SEGMENT_BITS)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Sets byte <code>index</code> to <code>value</code>, with volatile
+     * semantics: the write is ordered with the writes before it and the
+     * reads after it.
+     *
+     * @param index   the index of the byte
+     * @param value   the new value
+     */
+    public void setByteVolatile(long index, byte value)
+    {
+        VarHandle.releaseFence();
+        setByte(index, value);
+        VarHandle.fullFence();
+    }
+
+    /**
+     * Returns <code>int</code> number <code>index</code>, which is
+     * stored in bytes <code>4*index</code> to <code>4*index + 3</code>,
+     * with plain semantics.
+     *
+     * @param index   the index of the <code>int</code>
+     * @return        the <code>int</code>
+     */
+    public int getInt(long index)
+    {
+        long offset = index << 2;
+        return (int) INTS.get(segments[(int) (offset >>> SEGMENT_BITS)], (int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Sets <code>int</code> number <code>index</code> to
+     * <code>value</code>, with plain semantics.
+     *
+     * @param index   the index of the <code>int</code>
+     * @param value   the new value
+     */
+    public void setInt(long index, int value)
+    {
+        long offset = index << 2;
+        INTS.set(segments[(int) (offset >>> SEGMENT_BITS)], (int) (offset & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Returns <code>int</code> number <code>index</code>, with
+     * volatile semantics.
+     *
+     * @param index   the index of the <code>int</code>
+     * @return        the <code>int</code>
+     */
+    public int getIntVolatile(long index)
+    {
+        long offset = index << 2;
+        return (int) INTS.getVolatile(segments[(int) (offset >>> SEGMENT_BITS)],
+                                      (int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Sets <code>int</code> number <code>index</code> to
+     * <code>value</code>, with volatile semantics.
+     *
+     * @param index   the index of the <code>int</code>
+     * @param value   the new value
+     */
+    public void setIntVolatile(long index, int value)
+    {
+        long offset = index << 2;
+        INTS.setVolatile(segments[(int) (offset >>> SEGMENT_BITS)], (int) (offset & SEGMENT_MASK),
+                         value);
+    }
+
+    /**
+     * Atomically adds <code>delta</code> to <code>int</code> number
+     * <code>index</code>.
+     *
+     * @param index   the index of the <code>int</code>
+     * @param delta   the value to add
+     * @return        the previous value
+     */
+    public int getAndAddInt(long index, int delta)
+    {
+        long offset = index << 2;
+        return (int) INTS.getAndAdd(segments[(int) (offset >>> SEGMENT_BITS)],
+                                    (int) (offset & SEGMENT_MASK), delta);
+    }
+
+    /**
+     * Returns <code>long</code> number <code>index</code>, which is
+     * stored in bytes <code>8*index</code> to <code>8*index + 7</code>,
+     * with volatile semantics.
+     *
+     * @param index   the index of the <code>long</code>
+     * @return        the <code>long</code>
+     */
+    public long getLong(long index)
+    {
+        long offset = index << 3;
+        return (long) LONGS.getVolatile(segments[(int) (offset >>> SEGMENT_BITS)],
+                                        (int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * Sets <code>long</code> number <code>index</code> to
+     * <code>value</code>, with volatile semantics.
+     *
+     * @param index   the index of the <code>long</code>
+     * @param value   the new value
+     */
+    public void setLong(long index, long value)
+    {
+        long offset = index << 3;
+        LONGS.setVolatile(segments[(int) (offset >>> SEGMENT_BITS)], (int) (offset & SEGMENT_MASK),
+                          value);
+    }
+
+    /**
+     * Atomically sets <code>long</code> number <code>index</code> to
+     * <code>update</code> if it is <code>expect</code>.
+     *
+     * @param index    the index of the <code>long</code>
+     * @param expect   the expected value
+     * @param update   the new value
+     * @return         <code>true</code> if the value was set;
+     *                 <code>false</code> if it was not
+     *                 <code>expect</code>
+     */
+    public boolean compareAndSetLong(long index, long expect, long update)
+    {
+        long offset = index << 3;
+        return LONGS.compareAndSet(segments[(int) (offset >>> SEGMENT_BITS)],
+                                   (int) (offset & SEGMENT_MASK), expect, update);
+    }
+
+    // write all bytes of the array to out
+    void writeTo(OutputStream out)
+    throws IOException
+    {
+        byte[] buffer = new byte[1 << 16];
+        for (ByteBuffer segment: segments) {
+            ByteBuffer view = segment.duplicate();
+            view.clear();
+            while (view.hasRemaining()) {
+                int n = Math.min(buffer.length, view.remaining());
+                view.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
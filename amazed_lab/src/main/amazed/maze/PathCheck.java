@@ -0,0 +1,61 @@
+package amazed.maze;
+
+import java.io.IOException;
+
+import amazed.solver.PathConsumer;
+
+
+/**
+ * Checks a path as it is streamed from a solver to another consumer,
+ * with the same rules as <code>Maze.isValidPath</code>: the path
+ * begins with the start node, every node is accessible and adjacent
+ * to the previous one, and the last node is a goal. Only the last
+ * node received is kept, so a path is checked without being held in
+ * memory.
+ */
+
+class PathCheck
+    implements PathConsumer
+{
+    private final Board board;
+    private final int start;
+    private final PathConsumer next;
+    // cell index of the last node received; -1 before the first
+    private int previous = -1;
+    private boolean connected = true;
+
+    // checker of paths on maze, passing all chunks on to next
+    PathCheck(Maze maze, PathConsumer next)
+    {
+        this.board = maze.getBoard();
+        this.start = maze.start();
+        this.next = next;
+    }
+
+    @Override
+    public void accept(int[] nodes, int count)
+    throws IOException
+    {
+        int nCols = board.getCols();
+        for (int k = 0; k < count && connected; k++) {
+            int current = board.indexOf(nodes[k]);
+            if (previous < 0)
+                connected = nodes[k] == start;
+            else {
+                int step = current - previous;
+                connected = current >= 0 && board.isAccessible(current)
+                    && (step == nCols || step == -nCols
+                        || (step == 1 && current % nCols != 0)
+                        || (step == -1 && previous % nCols != 0));
+            }
+            previous = current;
+        }
+        next.accept(nodes, count);
+    }
+
+    // is the path received so far a valid path?
+    boolean isValid()
+    {
+        return connected && previous >= 0 && board.isHeart(previous);
+    }
+}
@@ -0,0 +1,146 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.IntConsumer;
+
+import amazed.solver.PathConsumer;
+
+
+/**
+ * Writes a path on a maze, received in chunks from a solver, to an
+ * output stream such as a file or a socket.
+ * <p>
+ * The stream begins with a header (magic number, format version,
+ * number of rows and columns of the board), followed by the nodes of
+ * the path up to the end of the stream. A node is written as its
+ * row-major cell index <code>row*columns + col</code>, which does not
+ * depend on the randomly generated node identifiers, encoded as the
+ * difference from the cell index of the previous node (or from 0,
+ * for the first node). Consecutive nodes of a path are adjacent, so
+ * differences are <code>&plusmn;1</code> or
+ * <code>&plusmn;columns</code>; they are written as zigzag
+ * variable-length integers, taking one or two bytes per node on most
+ * boards. Method <code>read</code> decodes such a stream.
+ */
+
+public class PathWriter
+    implements PathConsumer, Closeable
+{
+    static final int MAGIC = 0x414d5a50; // "AMZP"
+    static final int VERSION = 1;
+
+    private final Board board;
+    private final DataOutputStream out;
+    private int previous = 0;
+    private long written = 0;
+
+    /**
+     * Creates a writer of paths on <code>maze</code> to
+     * <code>out</code>, and writes the header.
+     *
+     * @param maze   the maze the path is on
+     * @param out    the stream to be written, which is closed by
+     *               <code>close</code>
+     * @throws IOException   if the header cannot be written
+     */
+    public PathWriter(Maze maze, OutputStream out)
+    throws IOException
+    {
+        this.board = maze.getBoard();
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(board.getRows());
+        this.out.writeInt(board.getCols());
+    }
+
+    @Override
+    public void accept(int[] nodes, int count)
+    throws IOException
+    {
+        for (int k = 0; k < count; k++) {
+            int cell = board.indexOf(nodes[k]);
+            int delta = cell - previous;
+            writeVarint((delta << 1) ^ (delta >> 31));
+            previous = cell;
+        }
+        written += count;
+    }
+
+    private void writeVarint(int value)
+    throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Returns the number of nodes written so far.
+     *
+     * @return   the number of nodes written
+     */
+    public long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        out.close();
+    }
+
+    /**
+     * Decodes a path written by a <code>PathWriter</code> from
+     * <code>in</code>, passing the cell index of every node, in order,
+     * to <code>cells</code>.
+     *
+     * @param in      the stream to be read, up to its end
+     * @param cells   the consumer of the cell indexes
+     * @return        the number of nodes read
+     * @throws IOException   if the stream cannot be read, or is not a
+     *                       path written by a <code>PathWriter</code>
+     */
+    public static long read(InputStream in, IntConsumer cells)
+    throws IOException
+    {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION)
+            throw new IOException("not a path file");
+        data.readInt(); // rows
+        data.readInt(); // columns
+        long count = 0;
+        int cell = 0;
+        while (true) {
+            int b = data.read();
+            if (b < 0)
+                return count;
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    break;
+                if (shift > 28 || (b = data.read()) < 0)
+                    throw new EOFException("truncated path file");
+            }
+            cell += (value >>> 1) ^ -(value & 1);
+            cells.accept(cell);
+            count++;
+        }
+    }
+}
@@ -1,35 +1,22 @@
 package amazed.maze;
 
-import java.awt.Image;
-
 
 public class Player
     implements Comparable<Player>
 {
+    static final Character TEXT = 'P';
+
     private final int id;
     private final String name;
-    private final Image image;
 
+    // the position of an on-board player is stored in the board's registry
     private Board board = null;
-    private int row, col;
-
-    private final String playerFileName = "player";
 
-    Player(int id, String name, int imageId)
+    // the GUI draws the player with ImageFactory.getPlayerImage(id)
+    Player(int id, String name)
     {
         this.id = id;
         this.name = name;
-        Image image = ImageFactory.getImage(playerFileName + Integer.toString(imageId));
-        if (image == null)
-            image = ImageFactory.getImage(playerFileName);
-        this.image = image;
-        this.row = -1;
-        this.col = -1;
-    }
-
-    Player(int id, String name)
-    {
-        this(id, name, 1 + (id % 4));
     }
 
     // add player to board at initial position row, col
@@ -37,9 +24,7 @@ public class Player
     {
         if (this.board == null && board.isOnBoard(row, col)) {
             this.board = board;
-            this.row = row;
-            this.col = col;
-            board.register(this, row, col);
+            board.register(id, row, col);
         }
     }
 
@@ -67,50 +52,42 @@ public class Player
 
     int getRow()
     {
-        return row;
+        if (board == null)
+            return -1;
+        return PlayerRegistry.row(board.getPlayerPosition(id));
     }
 
     int getCol()
     {
-        return col;
-    }
-
-    void setRow(int row)
-    {
-        this.row = row;
-    }
-
-    void setCol(int col)
-    {
-        this.col = col;
+        if (board == null)
+            return -1;
+        return PlayerRegistry.col(board.getPlayerPosition(id));
     }
 
     Character getText()
     {
-        return 'P';
-    }
-
-    Image getImage()
-    {
-        return image;
+        return TEXT;
     }
 
     // move player by one node in given direction
     void move(Direction direction)
     {
-        Position newPosition = board.move(new Position(row, col), direction);
-        if (board != null && newPosition != null)
-            board.move(this, newPosition.getRow(), newPosition.getCol());
+        if (board == null)
+            return;
+        Position newPosition = board.move(getPosition(), direction);
+        if (newPosition != null)
+            board.move(id, newPosition.getRow(), newPosition.getCol());
     }
 
     // move player to cell with given id newCellId
     void move(int newCellId)
     {
+        if (board == null)
+            return;
         Position newPosition = board.getPosition(newCellId);
-        if (board != null
-                && newPosition != null
+        if (newPosition != null
                 && board.isAccessible(newPosition.getRow(), newPosition.getCol()))
-            board.move(this, newPosition.getRow(), newPosition.getCol());
+            board.move(id, newPosition.getRow(), newPosition.getCol());
     }
 
     public int compareTo(Player other)
@@ -0,0 +1,259 @@
+package amazed.maze;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Lock-free registry of the positions of players on a board.
+ * <p>
+ * The position of every player is packed in a single <code>long</code>
+ * (row in the high half, column in the low half), stored in the
+ * player's slot of an <code>AtomicLongArray</code>; since a position
+ * is read and written atomically, readers never see a torn
+ * position. Arrays are allocated in chunks on demand, so that
+ * identifiers can grow without copying. The number of players on every
+ * cell, and the identifier of the last player that entered it, are
+ * kept in atomic counters indexed by row-major cell index; in large
+ * maps, as configured with <code>OffHeapArray.configure</code>, they
+ * are pairs of <code>int</code>s off the heap instead. Moving a
+ * player allocates nothing.
+ * <p>
+ * Consistent snapshots of all positions use a sequence lock per
+ * player that tolerates concurrent writers: next to its position,
+ * every slot has a sequence word that counts the writers in progress
+ * on the slot (high bits) and its completed updates (low bits). Thus
+ * an update only touches the slot of its own player, and writers of
+ * different players never contend. A reader copies every position
+ * with its sequence word while no writer is active on the slot, then
+ * reads all sequence words again, and retries if any changed in the
+ * meantime: the positions copied were then all current at once, in
+ * between the two passes.
+ */
+
+class PlayerRegistry
+{
+    static final long ABSENT = -1L;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << 16;
+
+    private final int nCols;
+    // player id >>> CHUNK_BITS --> packed position of every player in
+    // the chunk at 2 * slot, and its sequence word at 2 * slot + 1
+    private final AtomicReferenceArray<AtomicLongArray> chunks =
+        new AtomicReferenceArray<>(MAX_CHUNKS);
+    // one more than the largest player identifier ever added
+    private final AtomicInteger bound = new AtomicInteger();
+    // cell index --> number of players on cell
+    private final AtomicIntegerArray occupancy;
+    // cell index --> last player that entered the cell
+    private final AtomicIntegerArray occupant;
+    // 2 * cell index --> number of players on cell, and 2 * cell
+    // index + 1 --> last player that entered the cell, if the
+    // counters are off the heap; otherwise null
+    private final OffHeapArray offHeapCells;
+
+    // sequence words: writers in progress on the slot << WRITER_SHIFT
+    // | number of completed updates of the slot
+    private static final int WRITER_SHIFT = 40;
+    private static final long WRITER = 1L << WRITER_SHIFT;
+    private static final long VERSION_MASK = WRITER - 1;
+    // attempts at a consistent snapshot before settling for a
+    // snapshot where each position is only individually consistent
+    private static final int SNAPSHOT_ATTEMPTS = 64;
+
+    PlayerRegistry(int nRows, int nCols)
+    {
+        this.nCols = nCols;
+        long cells = (long) nRows*nCols;
+        if (OffHeapArray.isUsedFor(8*cells)) {
+            offHeapCells = OffHeapArray.allocate(8*cells);
+            occupancy = occupant = null;
+        } else {
+            offHeapCells = null;
+            occupancy = new AtomicIntegerArray(nRows*nCols);
+            occupant = new AtomicIntegerArray(nRows*nCols);
+        }
+    }
+
+    static long pack(int row, int col)
+    {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    static int row(long position)
+    {
+        return (int) (position >> 32);
+    }
+
+    static int col(long position)
+    {
+        return (int) position;
+    }
+
+    private AtomicLongArray chunk(int playerId, boolean create)
+    {
+        int c = playerId >>> CHUNK_BITS;
+        AtomicLongArray chunk = chunks.get(c);
+        if (chunk == null && create) {
+            long[] absent = new long[2*CHUNK_SIZE];
+            for (int slot = 0; slot < CHUNK_SIZE; slot++)
+                absent[2*slot] = ABSENT;
+            chunks.compareAndSet(c, null, new AtomicLongArray(absent));
+            chunk = chunks.get(c);
+        }
+        return chunk;
+    }
+
+    // packed position of player playerId, or ABSENT
+    long position(int playerId)
+    {
+        AtomicLongArray chunk = chunk(playerId, false);
+        return chunk == null ? ABSENT : chunk.get(2*(playerId & CHUNK_MASK));
+    }
+
+    // sequence word of player playerId; 0 if it was never updated
+    private long sequence(int playerId)
+    {
+        AtomicLongArray chunk = chunk(playerId, false);
+        return chunk == null ? 0 : chunk.get(2*(playerId & CHUNK_MASK) + 1);
+    }
+
+    private void enter(long position, int playerId)
+    {
+        int cell = row(position)*nCols + col(position);
+        if (offHeapCells != null) {
+            offHeapCells.setIntVolatile(2L*cell + 1, playerId);
+            offHeapCells.getAndAddInt(2L*cell, 1);
+        } else {
+            occupant.set(cell, playerId);
+            occupancy.incrementAndGet(cell);
+        }
+    }
+
+    private void leave(long position)
+    {
+        int cell = row(position)*nCols + col(position);
+        if (offHeapCells != null)
+            offHeapCells.getAndAddInt(2L*cell, -1);
+        else
+            occupancy.decrementAndGet(cell);
+    }
+
+    // add player playerId in row, col, unless it is already present
+    boolean add(int playerId, int row, int col)
+    {
+        long position = pack(row, col);
+        AtomicLongArray chunk = chunk(playerId, true);
+        int slot = 2*(playerId & CHUNK_MASK);
+        chunk.addAndGet(slot + 1, WRITER);
+        boolean added = chunk.compareAndSet(slot, ABSENT, position);
+        if (added) {
+            enter(position, playerId);
+            bound.accumulateAndGet(playerId + 1, Math::max);
+        }
+        chunk.addAndGet(slot + 1, 1 - WRITER);
+        return added;
+    }
+
+    // move player playerId to row, col, and return its previous
+    // packed position; if the player is absent, do nothing and return ABSENT
+    long move(int playerId, int row, int col)
+    {
+        AtomicLongArray chunk = chunk(playerId, false);
+        if (chunk == null)
+            return ABSENT;
+        int slot = 2*(playerId & CHUNK_MASK);
+        long position = pack(row, col), old;
+        chunk.addAndGet(slot + 1, WRITER);
+        do {
+            old = chunk.get(slot);
+            if (old == ABSENT || old == position) {
+                chunk.addAndGet(slot + 1, -WRITER);
+                return old;
+            }
+        } while (!chunk.compareAndSet(slot, old, position));
+        leave(old);
+        enter(position, playerId);
+        chunk.addAndGet(slot + 1, 1 - WRITER);
+        return old;
+    }
+
+    // remove player playerId, and return its last packed position
+    long remove(int playerId)
+    {
+        AtomicLongArray chunk = chunk(playerId, false);
+        if (chunk == null)
+            return ABSENT;
+        int slot = 2*(playerId & CHUNK_MASK);
+        chunk.addAndGet(slot + 1, WRITER);
+        long old = chunk.getAndSet(slot, ABSENT);
+        if (old != ABSENT)
+            leave(old);
+        chunk.addAndGet(slot + 1, 1 - WRITER);
+        return old;
+    }
+
+    // positions of all players on the board, in time linear in the
+    // number of players
+    BoardSnapshot snapshot()
+    {
+        for (int attempt = 0; ; attempt++) {
+            boolean last = attempt + 1 >= SNAPSHOT_ATTEMPTS;
+            int n = bound();
+            int[] ids = new int[n];
+            long[] positions = new long[n];
+            long[] sequences = new long[n];
+            int count = 0;
+            long version = 0;
+            boolean consistent = true;
+            // first pass: copy positions, and the sequence words before them
+            for (int playerId = 0; playerId < n; playerId++) {
+                long sequence = sequence(playerId);
+                if ((sequence >>> WRITER_SHIFT) != 0)
+                    consistent = false;
+                long position = position(playerId);
+                sequences[playerId] = sequence;
+                version += sequence & VERSION_MASK;
+                if (position != ABSENT) {
+                    ids[count] = playerId;
+                    positions[count] = position;
+                    count++;
+                }
+            }
+            // second pass: no slot was updated since the first pass
+            for (int playerId = 0; playerId < n && consistent; playerId++)
+                consistent = sequence(playerId) == sequences[playerId];
+            consistent = consistent && bound() == n;
+            if (consistent || last)
+                return new BoardSnapshot(ids, positions, count, version, consistent);
+            Thread.onSpinWait();
+        }
+    }
+
+    // one more than the largest player identifier ever added
+    int bound()
+    {
+        return bound.get();
+    }
+
+    int count(int row, int col)
+    {
+        int cell = row*nCols + col;
+        return offHeapCells != null ? offHeapCells.getIntVolatile(2L*cell) : occupancy.get(cell);
+    }
+
+    // identifier of a player on row, col, or -1 if the cell is empty
+    int occupant(int row, int col)
+    {
+        int cell = row*nCols + col;
+        if (count(row, col) <= 0)
+            return -1;
+        return offHeapCells != null ? offHeapCells.getIntVolatile(2L*cell + 1) : occupant.get(cell);
+    }
+}
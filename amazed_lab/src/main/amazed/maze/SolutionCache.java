@@ -0,0 +1,150 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * Persistent cache of solutions in a local directory.
+ * <p>
+ * Every entry is a file named after the content hash of a map (see
+ * <code>MapHash</code>) and the kind of solver that found the path,
+ * holding the path as a sequence of row-major cell indexes; since
+ * indexes do not depend on node identifiers, entries are valid across
+ * runs. Solvers of different kinds find different paths, such as
+ * least-cost and depth-first ones, so they do not share entries.
+ * The cache is bounded in size: after storing an entry, the least
+ * recently used entries (by modification time, which is refreshed on
+ * every hit) are deleted until the directory fits the bound.
+ * <p>
+ * Besides solutions, the cache can hold other data derived from a
+ * map, such as precomputed abstractions used by solvers, in files
+ * with a different suffix.
+ */
+
+class SolutionCache
+{
+    private static final int MAGIC = 0x414d5a50; // "AMZP"
+    private static final String SUFFIX = ".path";
+
+    private final File directory;
+    private final long maxBytes;
+
+    SolutionCache(String directory, long maxBytes)
+    {
+        this.directory = new File(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    private static final String PARTIAL = ".tmp";
+
+    private File entry(long hash, String suffix)
+    {
+        return new File(directory, String.format("%016x", hash) + suffix);
+    }
+
+    // suffix of the entries of paths found by solvers of kind solver
+    private static String pathSuffix(String solver)
+    {
+        return "-" + solver + SUFFIX;
+    }
+
+    // cached path found by a solver of kind solver for map with
+    // given hash, or null
+    int[] lookup(long hash, String solver)
+    {
+        File file = entry(hash, pathSuffix(solver));
+        if (!file.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+            int[] cells = new int[in.readInt()];
+            for (int k = 0; k < cells.length; k++)
+                cells[k] = in.readInt();
+            file.setLastModified(System.currentTimeMillis());
+            return cells;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // store path found by a solver of kind solver for map with given
+    // hash, and evict old entries
+    void store(long hash, String solver, int[] cells)
+    throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + 4*cells.length);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(cells.length);
+            for (int cell: cells)
+                out.writeInt(cell);
+        }
+        storeData(hash, pathSuffix(solver), bytes.toByteArray());
+    }
+
+    // data with given suffix for map with given hash, or null
+    byte[] lookupData(long hash, String suffix)
+    {
+        File file = entry(hash, suffix);
+        if (!file.isFile())
+            return null;
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // store data with given suffix for map with given hash, and
+    // evict old entries
+    void storeData(long hash, String suffix, byte[] data)
+    throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create cache directory " + directory);
+        File file = entry(hash, suffix);
+        File partial = new File(directory, file.getName() + PARTIAL);
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(partial))) {
+            out.write(data);
+        }
+        // readers never see a partially written entry
+        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+        evict();
+    }
+
+    // delete least recently used entries until the cache fits maxBytes
+    private void evict()
+    {
+        File[] entries = directory.listFiles((dir, name) -> !name.endsWith(PARTIAL));
+        if (entries == null)
+            return;
+        long total = 0;
+        for (File entry: entries)
+            total += entry.length();
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int k = 0; k < entries.length && total > maxBytes; k++) {
+            long length = entries[k].length();
+            if (entries[k].delete())
+                total -= length;
+        }
+    }
+}
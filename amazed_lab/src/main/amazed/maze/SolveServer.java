@@ -0,0 +1,364 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A long-running server that solves mazes on request, keeping parsed
+ * mazes and their solutions resident between requests.
+ * <p>
+ * The server listens on a local address &mdash; a Unix-domain socket
+ * or a TCP port on the loopback interface &mdash; and speaks a binary
+ * protocol of big-endian values. A client sends any number of
+ * requests on a connection; each request is a byte
+ * <code>PING</code>, or a byte <code>SOLVE</code> followed by the
+ * map file name (a short length and UTF-8 bytes), the ordinal of an
+ * <code>Amazed.Strategy</code> (a byte), and the solver's numeric
+ * parameter (an int). The server answers each request with a status
+ * byte; a solution (status <code>OK</code> to <code>SOLVE</code>) is
+ * followed by its length and the row-major cell indexes of its nodes
+ * (ints), and status <code>ERROR</code> by a message (as written by
+ * <code>writeUTF</code>).
+ * <p>
+ * Mazes are kept in an LRU map keyed by canonical file name, and are
+ * reloaded if the file is modified. Connections are served by a
+ * bounded pool of threads with a bounded queue; when both are full,
+ * a new connection receives a single <code>BUSY</code> status and is
+ * closed, so that overload is pushed back to clients instead of
+ * accumulating in the server.
+ * <p>
+ * The pool given to the server only parses maps. Every connection
+ * thread runs its solvers on a <code>ForkJoinPool</code> of its own,
+ * with an equal share of the given pool's parallelism, as
+ * <code>BatchSolver</code> does for its shards: parallel solvers of
+ * concurrent requests then never compete for the same workers, and
+ * a solver waiting for work never holds a thread that another
+ * request's solver needs.
+ */
+
+public class SolveServer
+    implements Closeable
+{
+    /** request: check that the server is alive */
+    public static final byte PING = 0;
+    /** request: solve a map */
+    public static final byte SOLVE = 1;
+
+    /** response: success, followed by a solution for <code>SOLVE</code> */
+    public static final byte OK = 0;
+    /** response: the maze has no reachable goal */
+    public static final byte NO_PATH = 1;
+    /** response: the server is overloaded; the connection is closed */
+    public static final byte BUSY = 2;
+    /** response: the request failed, followed by a message */
+    public static final byte ERROR = 3;
+
+    // node ids of resident mazes never leave the server, so any seed works
+    private static final long SEED = 0;
+
+    // a resident maze, with the solutions computed so far
+    private static class Entry
+    {
+        final Maze maze;
+        final long modified;
+        final Map<Long, int[]> solutions = new ConcurrentHashMap<>();
+
+        Entry(Maze maze, long modified)
+        {
+            this.maze = maze;
+            this.modified = modified;
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final ForkJoinPool pool;
+    private final ThreadPoolExecutor workers;
+    // pool of the current connection thread, which runs its solvers
+    private final ThreadLocal<ForkJoinPool> solverPool;
+    // all pools of connection threads, to shut down on close
+    private final List<ForkJoinPool> solverPools = new ArrayList<>();
+    // canonical map name --> maze being loaded or loaded, in LRU order
+    private final LinkedHashMap<String, FutureTask<Entry>> mazes;
+
+    /**
+     * Creates a server listening on <code>address</code>.
+     *
+     * @param address    a <code>UnixDomainSocketAddress</code>, or an
+     *                   <code>InetSocketAddress</code> on the loopback interface
+     * @param capacity   the maximum number of resident mazes
+     * @param threads    the number of connections served concurrently
+     * @param backlog    the number of connections waiting to be served
+     *                   before new connections are refused as busy
+     * @param pool       the pool that parses maps; solvers run on pools
+     *                   with an equal share of its parallelism, one per
+     *                   connection thread
+     * @throws IOException   if the address cannot be bound
+     */
+    public SolveServer(SocketAddress address, int capacity, int threads, int backlog,
+                       ForkJoinPool pool)
+    throws IOException
+    {
+        server = address instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open();
+        server.bind(address);
+        this.pool = pool;
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                         new ArrayBlockingQueue<>(backlog));
+        int parallelism = Math.max(1, pool.getParallelism() / threads);
+        solverPool = ThreadLocal.withInitial(() -> {
+                ForkJoinPool solvers = new ForkJoinPool(parallelism);
+                synchronized (solverPools) {
+                    solverPools.add(solvers);
+                }
+                return solvers;
+            });
+        mazes = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Entry>> eldest) {
+                    return size() > capacity;
+                }
+            };
+    }
+
+    /**
+     * Accepts and serves connections until the server is closed.
+     *
+     * @throws IOException   if accepting a connection fails other than
+     *                       because the server was closed
+     */
+    public void serve()
+    throws IOException
+    {
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isOpen())
+                    return;
+                throw e;
+            }
+            try {
+                workers.execute(() -> handle(client));
+            } catch (RejectedExecutionException e) {
+                try (SocketChannel busy = client) {
+                    busy.write(ByteBuffer.wrap(new byte[] { BUSY }));
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, and waits for the connections
+     * being served to be closed by their clients.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        server.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (solverPools) {
+            for (ForkJoinPool solvers: solverPools)
+                solvers.shutdown();
+        }
+    }
+
+    // serve all requests on a connection
+    private void handle(SocketChannel client)
+    {
+        try (SocketChannel channel = client;
+             DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Channels.newInputStream(channel)));
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            while (true) {
+                int request;
+                try {
+                    request = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (request == PING)
+                    out.writeByte(OK);
+                else if (request == SOLVE)
+                    solve(in, out);
+                else {
+                    out.writeByte(ERROR);
+                    out.writeUTF("unknown request " + request);
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away; nothing to answer
+        }
+    }
+
+    private void solve(DataInputStream in, DataOutputStream out)
+    throws IOException
+    {
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        int ordinal = in.readUnsignedByte();
+        int parameter = in.readInt();
+        Amazed.Strategy[] strategies = Amazed.Strategy.values();
+        if (ordinal >= strategies.length) {
+            out.writeByte(ERROR);
+            out.writeUTF("unknown strategy " + ordinal);
+            return;
+        }
+        Entry entry;
+        try {
+            entry = load(new String(name, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            out.writeByte(ERROR);
+            out.writeUTF("cannot read map: " + e.getMessage());
+            return;
+        }
+        long key = (long) ordinal << 32 | (parameter & 0xFFFFFFFFL);
+        int[] cells = entry.solutions.get(key);
+        if (cells == null) {
+            List<Integer> path = solverPool.get().invoke(
+                Amazed.newSolver(entry.maze, strategies[ordinal], parameter));
+            cells = path != null && entry.maze.isValidPath(path)
+                ? entry.maze.getBoard().pathToIndexes(path) : new int[0];
+            entry.solutions.put(key, cells);
+        }
+        if (cells.length == 0) {
+            out.writeByte(NO_PATH);
+            return;
+        }
+        out.writeByte(OK);
+        out.writeInt(cells.length);
+        for (int cell: cells)
+            out.writeInt(cell);
+    }
+
+    // the resident maze of map `filename', loading it if it is not
+    // resident or the file has changed; concurrent requests for the
+    // same map wait for a single load
+    private Entry load(String filename)
+    throws IOException
+    {
+        File file = new File(filename).getCanonicalFile();
+        if (!Files.isReadable(file.toPath()))
+            throw new IOException("no such file " + filename);
+        long modified = file.lastModified();
+        String key = file.getPath();
+        FutureTask<Entry> task, loading = null;
+        synchronized (mazes) {
+            task = mazes.get(key);
+            if (task == null || (task.isDone() && stale(task, modified))) {
+                loading = new FutureTask<>(() -> {
+                        Maze maze = new Maze(Board.read(key, SEED, pool));
+                        maze.setDelay(-1);
+                        return new Entry(maze, modified);
+                    });
+                mazes.put(key, loading);
+                task = loading;
+            }
+        }
+        if (loading != null)
+            loading.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            synchronized (mazes) {
+                mazes.remove(key, task);
+            }
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static boolean stale(FutureTask<Entry> task, long modified)
+    {
+        try {
+            return task.get().modified != modified;
+        } catch (InterruptedException | ExecutionException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Sends a request to solve map <code>map</code> to the server at
+     * <code>address</code>, on an open connection.
+     *
+     * @param out         the output stream of the connection
+     * @param in          the input stream of the connection
+     * @param map         the name of the map file, as seen by the server
+     * @param strategy    the kind of solver to use
+     * @param parameter   the solver's numeric parameter, as in
+     *                    {@link Amazed#Amazed(String, Amazed.Strategy, int, int, long)}
+     * @return            the row-major cell indexes of the solution;
+     *                    an empty array if there is no solution
+     * @throws IOException   if the connection fails, or the server
+     *                       reports an error or is busy
+     */
+    public static int[] request(DataOutputStream out, DataInputStream in, String map,
+                                Amazed.Strategy strategy, int parameter)
+    throws IOException
+    {
+        byte[] name = map.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(SOLVE);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeByte(strategy.ordinal());
+        out.writeInt(parameter);
+        out.flush();
+        int status = in.readUnsignedByte();
+        switch (status) {
+        case OK:
+            int[] cells = new int[in.readInt()];
+            for (int k = 0; k < cells.length; k++)
+                cells[k] = in.readInt();
+            return cells;
+        case NO_PATH:
+            return new int[0];
+        case BUSY:
+            throw new IOException("server busy");
+        default:
+            throw new IOException("server error: " + in.readUTF());
+        }
+    }
+}
@@ -1,31 +1,34 @@
 package amazed.maze;
 
-import java.awt.Image;
-
 
+// kinds of cells; new kinds are added at the end, since boards and
+// map indexes store tiles by ordinal
 public enum Tile
 {
-    EMPTY("empty"),
-    BRICK("brick"),
-    SOLID("solid"),
-    MARKED("marked"),
-    FOUND("found"),
-    HEART("heart");
+    EMPTY("empty", '.', 1),
+    BRICK("brick", '*', 8),
+    SOLID("solid", '#', 0),
+    MARKED("marked", '+', 1),
+    FOUND("found", '?', 1),
+    HEART("heart", 'v', 1),
+    SAND("sand", ':', 2),
+    MUD("mud", '~', 4);
 
     private final String name;
-    private final Image image;
     private final Character text;
+    private final int cost;
 
-    Tile(String name)
+    Tile(String name, char text, int cost)
     {
         this.name = name;
-        this.image = ImageFactory.getImage(this.name);
-        this.text = ImageFactory.getText(this.name);
+        this.text = text;
+        this.cost = cost;
     }
 
-    Image getImage()
+    // name of the tile's image in the GUI, see ImageFactory
+    String getName()
     {
-        return image;
+        return name;
     }
 
     Character getText()
@@ -37,4 +40,47 @@ public enum Tile
     {
         return text.charValue();
     }
+
+    boolean isAccessible()
+    {
+        return this == EMPTY || this == HEART || this == SAND || this == MUD;
+    }
+
+    // in weighted maps, bricks are slow to cross instead of blocking
+    boolean isAccessible(boolean weighted)
+    {
+        return isAccessible() || (weighted && this == BRICK);
+    }
+
+    // cost of moving onto a cell of this tile in a weighted map, if
+    // it is accessible; moves in unweighted maps all cost 1
+    int getCost()
+    {
+        return cost;
+    }
+
+    // largest cost of moving onto an accessible cell of a weighted map
+    static int maxCost()
+    {
+        int max = 1;
+        for (Tile tile: values())
+            if (tile.isAccessible(true))
+                max = Math.max(max, tile.cost);
+        return max;
+    }
+
+    // the tile of a cell of this tile on a solution path
+    Tile marked()
+    {
+        switch (this) {
+        case EMPTY:
+        case SAND:
+        case MUD:
+            return MARKED;
+        case HEART:
+            return FOUND;
+        default:
+            return this;
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package amazed.maze;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Records every player move on a maze as a compact binary trace.
+ * <p>
+ * A trace file begins with a header (magic number, format version,
+ * number of rows and columns of the board), followed by a sequence
+ * of blocks. Every block starts with the number of records it
+ * contains; a record is a triple (timestamp in nanoseconds since the
+ * recorder was created, player identifier, cell index), where the
+ * cell index is the row-major position <code>row*columns + col</code>
+ * of the cell, and hence does not depend on the randomly generated
+ * node identifiers.
+ * <p>
+ * Each thread writes into its own buffer, which is only handed over
+ * to the shared file channel when it is full; therefore, the records
+ * in a block are sorted by timestamp, but blocks of different threads
+ * interleave. Method <code>close</code> must only be called after all
+ * recording threads have stopped.
+ */
+
+class TraceRecorder
+    implements Closeable
+{
+    static final int MAGIC = 0x414d5a54; // "AMZT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int BLOCK_HEADER_SIZE = 4;
+    static final int RECORD_SIZE = 16;
+
+    private static final int BUFFER_SIZE = BLOCK_HEADER_SIZE + 4096*RECORD_SIZE;
+
+    private final String filename;
+    private final FileChannel channel;
+    private final long origin = System.nanoTime();
+
+    // all per-thread buffers, to flush them when closing
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private final ThreadLocal<ByteBuffer> buffer = ThreadLocal.withInitial(this::newBuffer);
+
+    private volatile boolean failed = false;
+
+    TraceRecorder(String filename, int nRows, int nCols)
+    throws IOException
+    {
+        this.filename = filename;
+        channel = FileChannel.open(Paths.get(filename),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nRows).putInt(nCols);
+        header.flip();
+        write(header);
+    }
+
+    private ByteBuffer newBuffer()
+    {
+        ByteBuffer result = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        result.position(BLOCK_HEADER_SIZE);
+        synchronized (buffers) {
+            buffers.add(result);
+        }
+        return result;
+    }
+
+    /**
+     * Records that player <code>playerId</code> is now on the cell with
+     * row-major index <code>cell</code>.
+     */
+    void record(int playerId, int cell)
+    {
+        if (failed)
+            return;
+        long time = System.nanoTime() - origin;
+        ByteBuffer buf = buffer.get();
+        if (buf.remaining() < RECORD_SIZE)
+            flush(buf);
+        buf.putLong(time).putInt(playerId).putInt(cell);
+    }
+
+    // write the records in buf as one block, and reset buf
+    private void flush(ByteBuffer buf)
+    {
+        int nRecords = (buf.position() - BLOCK_HEADER_SIZE) / RECORD_SIZE;
+        if (nRecords > 0) {
+            buf.putInt(0, nRecords);
+            buf.flip();
+            try {
+                write(buf);
+            } catch (IOException e) {
+                System.err.println("Error: cannot write trace file " + filename);
+                failed = true;
+            }
+        }
+        buf.clear();
+        buf.position(BLOCK_HEADER_SIZE);
+    }
+
+    private void write(ByteBuffer buf)
+    throws IOException
+    {
+        synchronized (channel) {
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException
+    {
+        synchronized (buffers) {
+            for (ByteBuffer buf: buffers)
+                flush(buf);
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,225 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * <code>TraceReplay</code> reads a trace recorded while solving a
+ * maze, and either replays it on the maze graphical representation
+ * or prints statistics about it.
+ * <p>
+ * Traces are recorded by calling method <code>recordTrace</code> on
+ * an instance of <code>Amazed</code> before calling
+ * <code>solve</code>. Since recording does not depend on the
+ * animation delay, a trace can be recorded at full speed and then
+ * replayed as slowly as needed.
+ */
+
+public class TraceReplay
+{
+    private final String map;
+    private final int nRows;
+    private final int nCols;
+
+    // records, in timestamp order
+    private long[] times;
+    private int[] players;
+    private int[] cells;
+    private int size;
+
+    /**
+     * Reads trace file <code>trace</code>, recorded while solving map
+     * <code>map</code>.
+     *
+     * @param map     the name of the map file the trace was recorded on
+     * @param trace   the name of the trace file
+     * @throws IOException if the trace cannot be read or is malformed
+     */
+    public TraceReplay(String map, String trace)
+    throws IOException
+    {
+        this.map = map;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(trace), 1 << 16))) {
+            if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION)
+                throw new IOException("not a trace file: " + trace);
+            nRows = in.readInt();
+            nCols = in.readInt();
+            readBlocks(in);
+        }
+    }
+
+    // read all blocks, and merge them into a single timestamp-ordered sequence
+    private void readBlocks(DataInputStream in)
+    throws IOException
+    {
+        long[] blockTimes = new long[1024];
+        int[] blockPlayers = new int[1024];
+        int[] blockCells = new int[1024];
+        int[] blockStarts = new int[16];
+        int nBlocks = 0, total = 0;
+        while (true) {
+            int nRecords;
+            try {
+                nRecords = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (nBlocks + 1 >= blockStarts.length)
+                blockStarts = Arrays.copyOf(blockStarts, 2*blockStarts.length);
+            if (total + nRecords > blockTimes.length) {
+                int capacity = Math.max(2*blockTimes.length, total + nRecords);
+                blockTimes = Arrays.copyOf(blockTimes, capacity);
+                blockPlayers = Arrays.copyOf(blockPlayers, capacity);
+                blockCells = Arrays.copyOf(blockCells, capacity);
+            }
+            blockStarts[nBlocks++] = total;
+            for (int k = 0; k < nRecords; k++, total++) {
+                blockTimes[total] = in.readLong();
+                blockPlayers[total] = in.readInt();
+                blockCells[total] = in.readInt();
+            }
+        }
+        blockStarts[nBlocks] = total;
+
+        times = new long[total];
+        players = new int[total];
+        cells = new int[total];
+        final long[] keys = blockTimes;
+        final int[] cursors = Arrays.copyOf(blockStarts, nBlocks);
+        final int[] ends = Arrays.copyOfRange(blockStarts, 1, nBlocks + 1);
+        PriorityQueue<Integer> heads = new PriorityQueue<>(
+            Math.max(1, nBlocks), (a, b) -> Long.compare(keys[cursors[a]], keys[cursors[b]]));
+        for (int b = 0; b < nBlocks; b++)
+            if (cursors[b] < ends[b])
+                heads.add(b);
+        while (!heads.isEmpty()) {
+            int b = heads.poll();
+            int k = cursors[b]++;
+            times[size] = blockTimes[k];
+            players[size] = blockPlayers[k];
+            cells[size] = blockCells[k];
+            size++;
+            if (cursors[b] < ends[b])
+                heads.add(b);
+        }
+    }
+
+    private Board loadBoard()
+    {
+        Board board = new Board(map);
+        if (board.getRows() != nRows || board.getCols() != nCols) {
+            System.err.println("Error: trace was not recorded on map " + map);
+            System.exit(1);
+        }
+        return board;
+    }
+
+    /**
+     * Replays the trace on the maze graphical representation.
+     *
+     * @param speed   the replay speed relative to the recorded run:
+     *                <code>1</code> replays in real time, <code>0.001</code>
+     *                is a thousand times slower than the recorded run;
+     *                if <code>speed &lt;= 0</code>, there is a fixed
+     *                pause of one millisecond between moves
+     * @throws InterruptedException if interrupted while replaying
+     */
+    public void replay(double speed)
+    throws InterruptedException
+    {
+        Board board = loadBoard();
+        Maze maze = new Maze(board);
+        MazeFrame.open(maze);
+        long owed = 0;
+        for (int k = 0; k < size; k++) {
+            if (speed <= 0)
+                Thread.sleep(1);
+            else if (k > 0) {
+                owed += (long) ((times[k] - times[k - 1]) / speed);
+                if (owed >= 1_000_000) {
+                    Thread.sleep(owed / 1_000_000, (int) (owed % 1_000_000));
+                    owed = 0;
+                }
+            }
+            int row = cells[k] / nCols, col = cells[k] % nCols;
+            if (board.getPlayerPosition(players[k]) == PlayerRegistry.ABSENT)
+                board.register(players[k], row, col);
+            else
+                board.move(players[k], row, col);
+        }
+    }
+
+    // symbols of increasing density in the heatmap
+    private static final String DENSITY = " .:-=+*%@";
+
+    /**
+     * Prints per-player statistics of the trace, a heatmap of the
+     * number of visits per cell, and a map of which player visited
+     * each cell most often.
+     */
+    public void printStats()
+    {
+        Board board = loadBoard();
+        int nCells = nRows*nCols;
+        int[] visits = new int[nCells];
+        // player identifier --> per-cell visits of that player
+        TreeMap<Integer, int[]> perPlayer = new TreeMap<>();
+        for (int k = 0; k < size; k++) {
+            visits[cells[k]]++;
+            perPlayer.computeIfAbsent(players[k], p -> new int[nCells])[cells[k]]++;
+        }
+        long span = size > 0 ? times[size - 1] - times[0] : 0;
+        System.out.println("Trace: " + size + " moves by " + perPlayer.size()
+                           + " players in " + span / 1000 + " us");
+        System.out.println(String.format("%8s %10s %10s", "player", "moves", "cells"));
+        for (Map.Entry<Integer, int[]> entry: perPlayer.entrySet()) {
+            int moves = 0, distinct = 0;
+            for (int v: entry.getValue()) {
+                moves += v;
+                if (v > 0)
+                    distinct++;
+            }
+            System.out.println(String.format("%8d %10d %10d", entry.getKey(), moves, distinct));
+        }
+
+        int max = 1;
+        for (int v: visits)
+            max = Math.max(max, v);
+        StringBuilder heat = new StringBuilder("Visits heatmap (max " + max + "):\n");
+        StringBuilder owners = new StringBuilder("Most frequent player per cell:\n");
+        for (int row = 0; row < nRows; row++) {
+            for (int col = 0; col < nCols; col++) {
+                int cell = row*nCols + col;
+                heat.append(' ');
+                owners.append(' ');
+                if (!board.isAccessible(row, col)) {
+                    heat.append('#');
+                    owners.append('#');
+                    continue;
+                }
+                int level = (int) Math.ceil((double) visits[cell] * (DENSITY.length() - 1) / max);
+                heat.append(DENSITY.charAt(level));
+                int owner = -1, best = 0;
+                for (Map.Entry<Integer, int[]> entry: perPlayer.entrySet()) {
+                    if (entry.getValue()[cell] > best) {
+                        best = entry.getValue()[cell];
+                        owner = entry.getKey();
+                    }
+                }
+                owners.append(owner < 0 ? '.' : Character.forDigit(owner % 36, 36));
+            }
+            heat.append('\n');
+            owners.append('\n');
+        }
+        System.out.print(heat);
+        System.out.print(owners);
+    }
+}
@@ -0,0 +1,300 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <code>BoundedMemorySolver</code> implements a solver for
+ * <code>Maze</code> objects that stays within a given memory budget.
+ * <p>
+ * If the budget can hold a visited bitmap, a predecessor array, and
+ * a stack for the whole maze, the solver runs a depth-first search
+ * with these primitive arrays. Otherwise it runs a breadth-first
+ * <em>frontier search</em>: in a breadth-first search of an
+ * undirected graph, the neighbors of a node at depth <code>d</code>
+ * are at depth <code>d - 1</code>, <code>d</code>, or <code>d +
+ * 1</code>, so it suffices to keep the last three layers, and memory
+ * grows with the width of the frontier instead of with the size of
+ * the maze. Since closed nodes are dropped, the path is reconstructed
+ * by divide and conquer: a search from the start to the goal found
+ * at depth <code>d</code> remembers, for every node, its ancestor at
+ * depth <code>d/2</code>, which yields a node in the middle of a
+ * shortest path; the two halves are then solved recursively, until
+ * they are short enough to be solved by an ordinary breadth-first
+ * search. This takes about <code>log d</code> times the time of a
+ * single search.
+ * <p>
+ * Method <code>getReport</code> describes the mode chosen and the
+ * memory actually used.
+ */
+
+public class BoundedMemorySolver
+    extends RecursiveTask<List<Integer>>
+{
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, using at most <code>budget</code> bytes
+     * for its data structures.
+     *
+     * @param maze     the maze to be searched
+     * @param budget   the memory budget, in bytes
+     */
+    public BoundedMemorySolver(Maze maze, long budget)
+    {
+        this.maze = maze;
+        this.budget = budget;
+    }
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, using at most half of the maximum heap
+     * for its data structures.
+     *
+     * @param maze   the maze to be searched
+     */
+    public BoundedMemorySolver(Maze maze)
+    {
+        this(maze, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    private final Maze maze;
+    private final long budget;
+    private int rows, cols;
+    private int player;
+    private String report = "not run";
+    // statistics of frontier search
+    private long peakBytes = 0;
+    private int passes = 0;
+
+    /**
+     * Returns a description of the search mode chosen, its memory
+     * use, and the number of passes over the maze.
+     *
+     * @return   a one-line report of the last search
+     */
+    public String getReport()
+    {
+        return report;
+    }
+
+    // bytes needed by depth-first search with primitive arrays: a
+    // visited bit, a predecessor, and on average one stack entry per cell
+    private long fullSearchBytes()
+    {
+        long n = maze.size();
+        return n / 8 + 4*n + 8*n;
+    }
+
+    /**
+     * Searches for and returns the path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        rows = maze.rows();
+        cols = maze.cols();
+        int start = maze.start();
+        player = maze.newPlayer(start);
+        int from = maze.rowOf(start)*cols + maze.colOf(start);
+        long needed = fullSearchBytes();
+        List<Integer> path;
+        if (needed <= budget) {
+            path = depthFirst(from);
+            report = String.format("depth-first search: needs %d KB of %d KB budget",
+                                   needed >> 10, budget >> 10);
+        } else {
+            path = frontier(from);
+            report = String.format("frontier search: full search needs %d KB of %d KB budget;"
+                                   + " peak %d KB in %d passes",
+                                   needed >> 10, budget >> 10, peakBytes >> 10, passes);
+        }
+        return path;
+    }
+
+    private int id(int index)
+    {
+        return maze.idAt(index / cols, index % cols);
+    }
+
+    private boolean isGoal(int index)
+    {
+        return maze.hasGoal(index / cols, index % cols);
+    }
+
+    // indexes of the accessible neighbors of cell index, into out;
+    // return their number
+    private int neighbors(int index, int[] out)
+    {
+        int row = index / cols, col = index % cols, n = 0;
+        if (row > 0 && maze.isAccessible(row - 1, col))
+            out[n++] = index - cols;
+        if (row < rows - 1 && maze.isAccessible(row + 1, col))
+            out[n++] = index + cols;
+        if (col > 0 && maze.isAccessible(row, col - 1))
+            out[n++] = index - 1;
+        if (col < cols - 1 && maze.isAccessible(row, col + 1))
+            out[n++] = index + 1;
+        return n;
+    }
+
+    private List<Integer> depthFirst(int from)
+    {
+        long[] visited = new long[(maze.size() + 63) >>> 6];
+        int[] predecessor = new int[maze.size()];
+        long[] stack = new long[64];
+        int size = 0;
+        int[] nbs = new int[4];
+        stack[size++] = (long) from << 32 | 0xFFFFFFFFL;
+        while (size > 0) {
+            long entry = stack[--size];
+            int current = (int) (entry >>> 32);
+            if ((visited[current >>> 6] & (1L << current)) != 0)
+                continue;
+            visited[current >>> 6] |= 1L << current;
+            predecessor[current] = (int) entry;
+            maze.move(player, id(current));
+            if (isGoal(current)) {
+                List<Integer> path = new ArrayList<>();
+                for (int index = current; index >= 0; index = predecessor[index])
+                    path.add(id(index));
+                Collections.reverse(path);
+                return path;
+            }
+            for (int k = neighbors(current, nbs) - 1; k >= 0; k--) {
+                if ((visited[nbs[k] >>> 6] & (1L << nbs[k])) != 0)
+                    continue;
+                if (size == stack.length)
+                    stack = Arrays.copyOf(stack, 2*size);
+                stack[size++] = (long) nbs[k] << 32 | current;
+            }
+        }
+        return null;
+    }
+
+    // outcome of a frontier search
+    private static class Found
+    {
+        final int node, depth, relay;
+
+        Found(int node, int depth, int relay)
+        {
+            this.node = node;
+            this.depth = depth;
+            this.relay = relay;
+        }
+    }
+
+    // breadth-first search from `from' to `to' (or any goal, if `to'
+    // is negative) keeping three layers; every node remembers its
+    // ancestor at depth relayDepth
+    private Found search(int from, int to, int relayDepth)
+    {
+        passes++;
+        IntHashMap previous = new IntHashMap(), current = new IntHashMap(), next;
+        current.putIfAbsent(from, relayDepth == 0 ? from : -1);
+        int[] nbs = new int[4];
+        for (int depth = 0; current.size() > 0; depth++) {
+            next = new IntHashMap(current.size());
+            for (int s = 0; s < current.capacity(); s++) {
+                int node = current.keyAt(s);
+                if (node < 0)
+                    continue;
+                if (to < 0 ? isGoal(node) : node == to)
+                    return new Found(node, depth, current.valueAt(s));
+                maze.move(player, id(node));
+                for (int k = neighbors(node, nbs) - 1; k >= 0; k--) {
+                    int nb = nbs[k];
+                    if (previous.containsKey(nb) || current.containsKey(nb))
+                        continue;
+                    next.putIfAbsent(nb, depth + 1 == relayDepth ? nb : current.valueAt(s));
+                }
+            }
+            peakBytes = Math.max(peakBytes, previous.bytes() + current.bytes() + next.bytes());
+            previous = current;
+            current = next;
+        }
+        return null;
+    }
+
+    private List<Integer> frontier(int from)
+    {
+        Found goal = search(from, -1, -1);
+        if (goal == null)
+            return null;
+        List<Integer> path = new ArrayList<>(goal.depth + 1);
+        path.add(id(from));
+        appendPath(from, goal.node, goal.depth, path);
+        return path;
+    }
+
+    // cells whose full breadth-first search fits in the budget
+    private long baseCells()
+    {
+        return Math.max(1024, budget / 32);
+    }
+
+    // append to path the cells after `from' on a shortest path, of
+    // length `depth', to `to'
+    private void appendPath(int from, int to, int depth, List<Integer> path)
+    {
+        if (depth == 0)
+            return;
+        // a ball of radius depth has at most 2 depth^2 cells
+        if (2L*depth*depth <= baseCells()) {
+            appendBase(from, to, depth, path);
+            return;
+        }
+        int middle = depth / 2;
+        Found found = search(from, to, middle);
+        appendPath(from, found.relay, middle, path);
+        appendPath(found.relay, to, depth - middle, path);
+    }
+
+    // append a shortest path found by an ordinary breadth-first search
+    private void appendBase(int from, int to, int depth, List<Integer> path)
+    {
+        passes++;
+        IntHashMap predecessor = new IntHashMap();
+        int[] queue = new int[64];
+        int head = 0, tail = 0;
+        int[] nbs = new int[4];
+        predecessor.putIfAbsent(from, -1);
+        queue[tail++] = from;
+        while (head < tail) {
+            int node = queue[head++];
+            if (node == to)
+                break;
+            for (int k = neighbors(node, nbs) - 1; k >= 0; k--) {
+                if (!predecessor.putIfAbsent(nbs[k], node))
+                    continue;
+                if (tail == queue.length)
+                    queue = Arrays.copyOf(queue, 2*tail);
+                queue[tail++] = nbs[k];
+            }
+        }
+        peakBytes = Math.max(peakBytes, predecessor.bytes() + 4L*queue.length);
+        int[] cells = new int[depth];
+        int node = to;
+        for (int k = depth - 1; k >= 0; k--) {
+            cells[k] = node;
+            node = predecessor.get(node, -1);
+        }
+        for (int cell: cells) {
+            maze.move(player, id(cell));
+            path.add(id(cell));
+        }
+    }
+}
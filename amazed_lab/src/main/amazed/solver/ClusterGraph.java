@@ -0,0 +1,305 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Abstract graph of a maze for hierarchical search.
+ * <p>
+ * The grid is partitioned into square clusters of <code>size</code>
+ * by <code>size</code> cells. Wherever two adjacent clusters share a
+ * run of border cells that are accessible on both sides, the run is
+ * an <em>entrance</em>, represented by one pair of cells (in the
+ * middle of the run) or, for long runs, two pairs (at its ends). The
+ * cells of these pairs are the nodes of the abstract graph; the two
+ * cells of a pair are joined by an edge of cost 1, and every two
+ * nodes in the same cluster by an edge whose cost is their distance
+ * within the cluster. Every node also knows the nearest goal in its
+ * cluster, if any.
+ * <p>
+ * Nodes are identified by their position in the sorted array of
+ * their row-major cell indexes, so the graph does not depend on node
+ * identifiers of the maze and can be stored and reused across runs.
+ * Edges are stored in compressed rows: the edges of node
+ * <code>n</code> are those from <code>edgeStart[n]</code> to
+ * <code>edgeStart[n + 1]</code>.
+ */
+
+class ClusterGraph
+{
+    static final int INFINITY = Integer.MAX_VALUE;
+
+    private static final int MAGIC = 0x414d5a48; // "AMZH"
+    // entrances at least this long get a node pair at each end
+    private static final int LONG_ENTRANCE = 6;
+    // clusters processed sequentially by a precomputation task
+    private static final int CLUSTERS_PER_TASK = 16;
+
+    final int rows, cols, size;
+    final int clusterRows, clusterCols;
+
+    // node --> row-major cell index, sorted
+    int[] cells;
+    // nodes of cluster c are clusterNodes[clusterStart[c] .. clusterStart[c + 1] - 1]
+    int[] clusterStart;
+    int[] clusterNodes;
+    // compressed rows of edges
+    int[] edgeStart;
+    int[] edgeTarget;
+    int[] edgeCost;
+    // node --> distance to, and cell of, the nearest goal in its cluster
+    int[] heartCost;
+    int[] heartCell;
+
+    private ClusterGraph(int rows, int cols, int size)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.size = size;
+        clusterRows = (rows + size - 1) / size;
+        clusterCols = (cols + size - 1) / size;
+    }
+
+    int clusterOf(int cell)
+    {
+        return (cell / cols / size) * clusterCols + (cell % cols) / size;
+    }
+
+    // node with the given cell index, or a negative value
+    int nodeOf(int cell)
+    {
+        return Arrays.binarySearch(cells, cell);
+    }
+
+    /**
+     * Builds the abstract graph of <code>maze</code>, processing
+     * clusters in parallel in the pool of the calling task.
+     */
+    static ClusterGraph build(Maze maze, int size)
+    {
+        ClusterGraph graph = new ClusterGraph(maze.rows(), maze.cols(), size);
+        graph.build(maze);
+        return graph;
+    }
+
+    private void build(Maze maze)
+    {
+        int nClusters = clusterRows*clusterCols;
+
+        // pass 1: entrances on the bottom and right border of every cluster
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<int[]>[] entrances = new List[nClusters];
+        forEachCluster(nClusters, c -> entrances[c] = entrances(maze, c));
+        int nPairs = 0;
+        for (List<int[]> pairs: entrances)
+            nPairs += pairs.size();
+        int[] all = new int[2*nPairs];
+        int k = 0;
+        for (List<int[]> pairs: entrances)
+            for (int[] pair: pairs) {
+                all[k++] = pair[0];
+                all[k++] = pair[1];
+            }
+        Arrays.sort(all);
+        int n = 0;
+        for (int j = 0; j < all.length; j++)
+            if (j == 0 || all[j] != all[j - 1])
+                all[n++] = all[j];
+        cells = Arrays.copyOf(all, n);
+        groupByCluster();
+
+        // pass 2: distances within every cluster
+        int[][] intraTarget = new int[n][];
+        int[][] intraCost = new int[n][];
+        heartCost = new int[n];
+        heartCell = new int[n];
+        forEachCluster(nClusters, c -> distances(maze, c, intraTarget, intraCost));
+
+        // compressed rows: entrance edges, then distances
+        int[] degree = new int[n];
+        for (List<int[]> pairs: entrances)
+            for (int[] pair: pairs) {
+                degree[nodeOf(pair[0])]++;
+                degree[nodeOf(pair[1])]++;
+            }
+        edgeStart = new int[n + 1];
+        for (int node = 0; node < n; node++)
+            edgeStart[node + 1] = edgeStart[node] + degree[node] + intraTarget[node].length;
+        edgeTarget = new int[edgeStart[n]];
+        edgeCost = new int[edgeStart[n]];
+        int[] next = Arrays.copyOf(edgeStart, n);
+        for (List<int[]> pairs: entrances)
+            for (int[] pair: pairs) {
+                int a = nodeOf(pair[0]), b = nodeOf(pair[1]);
+                edgeTarget[next[a]] = b;
+                edgeCost[next[a]++] = 1;
+                edgeTarget[next[b]] = a;
+                edgeCost[next[b]++] = 1;
+            }
+        for (int node = 0; node < n; node++) {
+            System.arraycopy(intraTarget[node], 0, edgeTarget, next[node], intraTarget[node].length);
+            System.arraycopy(intraCost[node], 0, edgeCost, next[node], intraCost[node].length);
+        }
+    }
+
+    private interface ClusterAction
+    {
+        void apply(int cluster);
+    }
+
+    private static void forEachCluster(int nClusters, ClusterAction action)
+    {
+        new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tasks = new ArrayList<>();
+                for (int from = 0; from < nClusters; from += CLUSTERS_PER_TASK) {
+                    int first = from, last = Math.min(nClusters, from + CLUSTERS_PER_TASK);
+                    tasks.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                for (int c = first; c < last; c++)
+                                    action.apply(c);
+                            }
+                        });
+                }
+                ForkJoinTask.invokeAll(tasks);
+            }
+        }.invoke();
+    }
+
+    // pairs of cells of the entrances between cluster c and the
+    // clusters below and to its right
+    private List<int[]> entrances(Maze maze, int c)
+    {
+        List<int[]> pairs = new ArrayList<>();
+        int top = (c / clusterCols) * size, left = (c % clusterCols) * size;
+        int bottom = Math.min(rows, top + size), right = Math.min(cols, left + size);
+        if (bottom < rows) {
+            int run = 0;
+            for (int col = left; col <= right; col++) {
+                if (col < right && maze.isAccessible(bottom - 1, col) && maze.isAccessible(bottom, col))
+                    run++;
+                else if (run > 0) {
+                    for (int at: ends(col - run, col - 1))
+                        pairs.add(new int[] { (bottom - 1)*cols + at, bottom*cols + at });
+                    run = 0;
+                }
+            }
+        }
+        if (right < cols) {
+            int run = 0;
+            for (int row = top; row <= bottom; row++) {
+                if (row < bottom && maze.isAccessible(row, right - 1) && maze.isAccessible(row, right))
+                    run++;
+                else if (run > 0) {
+                    for (int at: ends(row - run, row - 1))
+                        pairs.add(new int[] { at*cols + right - 1, at*cols + right });
+                    run = 0;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static int[] ends(int first, int last)
+    {
+        if (last - first + 1 >= LONG_ENTRANCE)
+            return new int[] { first, last };
+        return new int[] { (first + last) >>> 1 };
+    }
+
+    private void groupByCluster()
+    {
+        int nClusters = clusterRows*clusterCols;
+        clusterStart = new int[nClusters + 1];
+        for (int cell: cells)
+            clusterStart[clusterOf(cell) + 1]++;
+        for (int c = 0; c < nClusters; c++)
+            clusterStart[c + 1] += clusterStart[c];
+        clusterNodes = new int[cells.length];
+        int[] next = Arrays.copyOf(clusterStart, nClusters);
+        for (int node = 0; node < cells.length; node++)
+            clusterNodes[next[clusterOf(cells[node])]++] = node;
+    }
+
+    // distances between the nodes of cluster c, and from each of
+    // them to the nearest goal in c
+    private void distances(Maze maze, int c, int[][] intraTarget, int[][] intraCost)
+    {
+        int first = clusterStart[c], last = clusterStart[c + 1];
+        if (first == last)
+            return;
+        ClusterSearch search = new ClusterSearch(maze, this, c);
+        for (int k = first; k < last; k++) {
+            int node = clusterNodes[k];
+            search.run(cells[node]);
+            int[] targets = new int[last - first - 1];
+            int[] costs = new int[last - first - 1];
+            int m = 0;
+            for (int j = first; j < last; j++) {
+                int other = clusterNodes[j];
+                int distance = search.distance(cells[other]);
+                if (other != node && distance != INFINITY) {
+                    targets[m] = other;
+                    costs[m++] = distance;
+                }
+            }
+            intraTarget[node] = Arrays.copyOf(targets, m);
+            intraCost[node] = Arrays.copyOf(costs, m);
+            heartCell[node] = search.nearestGoal();
+            heartCost[node] = heartCell[node] < 0 ? INFINITY : search.distance(heartCell[node]);
+        }
+    }
+
+    void write(DataOutputStream out)
+    throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(rows);
+        out.writeInt(cols);
+        out.writeInt(size);
+        out.writeInt(cells.length);
+        out.writeInt(edgeTarget.length);
+        for (int[] array: new int[][] { cells, edgeStart, edgeTarget, edgeCost, heartCost, heartCell })
+            for (int value: array)
+                out.writeInt(value);
+    }
+
+    // the graph stored in `in', or null if it does not belong to a
+    // maze of the given size partitioned into clusters of the given size
+    static ClusterGraph read(DataInputStream in, int rows, int cols, int size)
+    throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != rows || in.readInt() != cols
+            || in.readInt() != size)
+            return null;
+        ClusterGraph graph = new ClusterGraph(rows, cols, size);
+        int n = in.readInt(), nEdges = in.readInt();
+        graph.cells = readInts(in, n);
+        graph.edgeStart = readInts(in, n + 1);
+        graph.edgeTarget = readInts(in, nEdges);
+        graph.edgeCost = readInts(in, nEdges);
+        graph.heartCost = readInts(in, n);
+        graph.heartCell = readInts(in, n);
+        graph.groupByCluster();
+        return graph;
+    }
+
+    private static int[] readInts(DataInputStream in, int length)
+    throws IOException
+    {
+        int[] values = new int[length];
+        for (int k = 0; k < length; k++)
+            values[k] = in.readInt();
+        return values;
+    }
+}
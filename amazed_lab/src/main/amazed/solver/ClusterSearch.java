@@ -0,0 +1,120 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.Arrays;
+
+/**
+ * Breadth-first search confined to one cluster of a
+ * <code>ClusterGraph</code>. Cells are addressed by their row-major
+ * index in the maze; the arrays of the search only cover the cluster,
+ * so that a search costs time and memory proportional to the size of
+ * the cluster, not of the maze. An instance reads the tiles of its
+ * cluster once, and can then run several searches in the cluster one
+ * after the other.
+ */
+
+class ClusterSearch
+{
+    private final int cols;
+    private final int top, left, height, width;
+    // local index --> distance from the source, or INFINITY
+    private final int[] distance;
+    // local index --> local index of the predecessor on a shortest path
+    private final int[] parent;
+    private final int[] queue;
+    // local index --> ACCESSIBLE and GOAL flags, read once from the maze
+    private final byte[] flags;
+    private static final byte ACCESSIBLE = 1, GOAL = 2;
+    private int source;
+    private int nearestGoal;
+
+    ClusterSearch(Maze maze, ClusterGraph graph, int cluster)
+    {
+        this.cols = graph.cols;
+        top = (cluster / graph.clusterCols) * graph.size;
+        left = (cluster % graph.clusterCols) * graph.size;
+        height = Math.min(graph.rows, top + graph.size) - top;
+        width = Math.min(graph.cols, left + graph.size) - left;
+        distance = new int[height*width];
+        parent = new int[height*width];
+        queue = new int[height*width];
+        flags = new byte[height*width];
+        for (int row = 0; row < height; row++)
+            for (int col = 0; col < width; col++)
+                if (maze.isAccessible(top + row, left + col))
+                    flags[row*width + col] = (byte) (ACCESSIBLE
+                        | (maze.hasGoal(top + row, left + col) ? GOAL : 0));
+    }
+
+    // local index of a cell, or -1 if it is outside the cluster
+    private int local(int cell)
+    {
+        int row = cell / cols - top, col = cell % cols - left;
+        if (row < 0 || row >= height || col < 0 || col >= width)
+            return -1;
+        return row*width + col;
+    }
+
+    private int cell(int local)
+    {
+        return (top + local / width)*cols + left + local % width;
+    }
+
+    // search the cluster from cell `from'
+    void run(int from)
+    {
+        Arrays.fill(distance, ClusterGraph.INFINITY);
+        source = local(from);
+        nearestGoal = -1;
+        int head = 0, tail = 0;
+        distance[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int current = queue[head++];
+            int row = current / width, col = current % width;
+            if (nearestGoal < 0 && (flags[current] & GOAL) != 0)
+                nearestGoal = cell(current);
+            for (int k = 0; k < 4; k++) {
+                int r = row + (k == 0 ? -1 : k == 1 ? 1 : 0);
+                int c = col + (k == 2 ? -1 : k == 3 ? 1 : 0);
+                if (r < 0 || r >= height || c < 0 || c >= width)
+                    continue;
+                int next = r*width + c;
+                if (distance[next] == ClusterGraph.INFINITY && (flags[next] & ACCESSIBLE) != 0) {
+                    distance[next] = distance[current] + 1;
+                    parent[next] = current;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    // distance of `cell' from the source of the last search
+    int distance(int cell)
+    {
+        int local = local(cell);
+        return local < 0 ? ClusterGraph.INFINITY : distance[local];
+    }
+
+    // cell of the goal nearest to the source of the last search, or -1
+    int nearestGoal()
+    {
+        return nearestGoal;
+    }
+
+    // cells of a shortest path from the source of the last search
+    // to `to', excluding the source; null if `to' was not reached
+    int[] pathTo(int to)
+    {
+        int current = local(to);
+        if (current < 0 || distance[current] == ClusterGraph.INFINITY)
+            return null;
+        int[] path = new int[distance[current]];
+        for (int k = path.length - 1; k >= 0; k--) {
+            path[k] = cell(current);
+            current = parent[current];
+        }
+        return path;
+    }
+}
@@ -0,0 +1,324 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>DeltaSteppingSolver</code> implements a solver for
+ * <code>Maze</code> objects that finds a least-cost path from the
+ * start node to the cheapest goal, where moving onto a node costs
+ * <code>maze.cost</code> of the node, using parallel delta-stepping.
+ * <p>
+ * Delta-stepping is a variant of Dijkstra's algorithm that settles
+ * nodes in buckets of width <code>delta</code> instead of one at a
+ * time: bucket <code>b</code> holds the nodes whose tentative cost is
+ * in <code>[b*delta, (b+1)*delta)</code>. The nodes of the lowest
+ * non-empty bucket are processed in parallel, relaxing their
+ * <em>light</em> moves (of cost at most <code>delta</code>), which may
+ * add nodes back to the same bucket, until the bucket stays empty;
+ * then the <em>heavy</em> moves of all the nodes removed from the
+ * bucket are relaxed once, in parallel. Costs below
+ * <code>(b+1)*delta</code> are then final, so the search stops as
+ * soon as a goal is known to cost less than that.
+ * <p>
+ * Every node's cost and predecessor are packed into one
+ * <code>long</code> of an atomic array, and lowered by
+ * compare-and-set, so that they always match. Each task that relaxes
+ * a chunk of a bucket collects the nodes it improves into its own
+ * primitive lists, one per bucket, which are appended to the shared
+ * buckets after the task; buckets are kept in a ring, since moves
+ * reach at most <code>maze.maxCost()</code> beyond the current bucket.
+ * Nodes are addressed by row-major cell index, and only converted to
+ * identifiers to move players and to return the path. The array of
+ * costs and predecessors goes off the heap in large mazes, as
+ * configured with <code>OffHeapArray.configure</code>.
+ * <p>
+ * In unweighted mazes, where every move costs 1, the solver finds a
+ * shortest path, as a parallel breadth-first search. The search
+ * stops without a path if the solver is cancelled, which it checks
+ * before every bucket.
+ */
+
+public class DeltaSteppingSolver
+    extends RecursiveTask<List<Integer>>
+{
+    /**
+     * The width of buckets unless specified otherwise.
+     */
+    public static final int DEFAULT_DELTA = 4;
+
+    // largest number of nodes of a bucket relaxed by a single task
+    private static final int CHUNK = 1024;
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, with buckets of width
+     * <code>DEFAULT_DELTA</code>.
+     *
+     * @param maze   the maze to be searched
+     */
+    public DeltaSteppingSolver(Maze maze)
+    {
+        this(maze, DEFAULT_DELTA);
+    }
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, with buckets of width <code>delta</code>.
+     * Moves that cost at most <code>delta</code> are light; a larger
+     * <code>delta</code> means fewer, larger buckets, hence more
+     * parallelism but more nodes relaxed more than once.
+     *
+     * @param maze    the maze to be searched
+     * @param delta   the width of buckets, at least 1
+     */
+    public DeltaSteppingSolver(Maze maze, int delta)
+    {
+        if (delta < 1)
+            throw new IllegalArgumentException("bucket width must be positive: " + delta);
+        this.maze = maze;
+        this.delta = delta;
+    }
+
+    private final Maze maze;
+    private final int delta;
+    private int rows, cols;
+    // cell index --> (cost of cheapest path found + 1) << 32 | index
+    // of the previous cell on that path; 0 if not reached
+    private LongCells best;
+    // cost << 32 | index of the cheapest goal processed so far
+    private final AtomicLong bestGoal = new AtomicLong(Long.MAX_VALUE);
+    // bucket b is buckets[b % buckets.length]
+    private IntList[] buckets;
+    // number of entries in all buckets
+    private long pending = 0;
+    private int relaxed = 0;
+
+    /**
+     * Returns the number of buckets processed by the last search.
+     *
+     * @return   the number of non-empty buckets processed
+     */
+    public int getBuckets()
+    {
+        return relaxed;
+    }
+
+    private static long pack(int cost, int from)
+    {
+        return ((long) (cost + 1) << 32) | (from & 0xFFFFFFFFL);
+    }
+
+    private static int costOf(long entry)
+    {
+        return (int) (entry >>> 32) - 1;
+    }
+
+    /**
+     * Searches for and returns the least-cost path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        rows = maze.rows();
+        cols = maze.cols();
+        best = LongCells.of(maze.size());
+        buckets = new IntList[maze.maxCost() / delta + 2];
+        for (int k = 0; k < buckets.length; k++)
+            buckets[k] = new IntList();
+        int start = maze.start();
+        int player = maze.newPlayer(start);
+        int startIndex = maze.rowOf(start)*cols + maze.colOf(start);
+        best.set(startIndex, pack(0, -1));
+        buckets[0].add(startIndex);
+        pending = 1;
+        for (int b = 0; pending > 0 && !isCancelled(); b++) {
+            IntList bucket = buckets[b % buckets.length];
+            if (bucket.size() == 0)
+                continue;
+            relaxed++;
+            IntList settled = new IntList();
+            while (bucket.size() > 0) {
+                int[] frontier = bucket.toArray();
+                pending -= bucket.size();
+                bucket.clear();
+                int first = frontier[0];
+                maze.move(player, maze.idAt(first / cols, first % cols));
+                relax(frontier, b, true, settled);
+            }
+            relax(settled.toArray(), b, false, null);
+            if (bestGoal.get() != Long.MAX_VALUE && (bestGoal.get() >>> 32) < (long) (b + 1)*delta)
+                break;
+        }
+        if (bestGoal.get() == Long.MAX_VALUE || isCancelled())
+            return null;
+        List<Integer> path = new ArrayList<>();
+        for (int index = (int) bestGoal.get(); index >= 0; index = (int) best.get(index))
+            path.add(maze.idAt(index / cols, index % cols));
+        Collections.reverse(path);
+        maze.move(player, path.get(path.size() - 1));
+        return path;
+    }
+
+    // relax the light (or heavy) moves from cells in bucket b, in
+    // parallel; add cells processed in a light relaxation to settled
+    private void relax(int[] cells, int b, boolean light, IntList settled)
+    {
+        Queue<Chunk> done = new ConcurrentLinkedQueue<>();
+        new Relax(cells, 0, cells.length, b, light, done).invoke();
+        for (Chunk chunk: done) {
+            for (int k = 0; k < buckets.length; k++) {
+                if (chunk.buckets[k] != null) {
+                    buckets[k].addAll(chunk.buckets[k]);
+                    pending += chunk.buckets[k].size();
+                }
+            }
+            if (settled != null)
+                settled.addAll(chunk.settled);
+        }
+    }
+
+    // lower the cost of cell `to' to `cost', reached from `from';
+    // return false if its cost is already as low
+    private boolean improve(int to, int cost, int from)
+    {
+        long old;
+        do {
+            old = best.get(to);
+            if (old != 0 && costOf(old) <= cost)
+                return false;
+        } while (!best.compareAndSet(to, old, pack(cost, from)));
+        return true;
+    }
+
+    // cells collected by one task
+    private class Chunk
+    {
+        final IntList[] buckets = new IntList[DeltaSteppingSolver.this.buckets.length];
+        final IntList settled = new IntList();
+
+        void add(int cell, int cost)
+        {
+            int k = (cost / delta) % buckets.length;
+            if (buckets[k] == null)
+                buckets[k] = new IntList();
+            buckets[k].add(cell);
+        }
+    }
+
+    private class Relax
+        extends RecursiveAction
+    {
+        private final int[] cells;
+        private final int from, to, bucket;
+        private final boolean light;
+        private final Queue<Chunk> done;
+
+        Relax(int[] cells, int from, int to, int bucket, boolean light, Queue<Chunk> done)
+        {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+            this.bucket = bucket;
+            this.light = light;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Relax(cells, from, middle, bucket, light, done),
+                          new Relax(cells, middle, to, bucket, light, done));
+                return;
+            }
+            Chunk chunk = new Chunk();
+            for (int k = from; k < to; k++) {
+                int cell = cells[k];
+                int cost = costOf(best.get(cell));
+                // a cell lowered into an earlier bucket was processed there
+                if (cost / delta != bucket)
+                    continue;
+                int row = cell / cols, col = cell % cols;
+                if (light) {
+                    chunk.settled.add(cell);
+                    if (maze.hasGoal(row, col))
+                        bestGoal.accumulateAndGet((long) cost << 32 | cell, Math::min);
+                }
+                if (row > 0)
+                    relax(chunk, cell, cost, cell - cols, row - 1, col);
+                if (row < rows - 1)
+                    relax(chunk, cell, cost, cell + cols, row + 1, col);
+                if (col > 0)
+                    relax(chunk, cell, cost, cell - 1, row, col - 1);
+                if (col < cols - 1)
+                    relax(chunk, cell, cost, cell + 1, row, col + 1);
+            }
+            done.add(chunk);
+        }
+
+        private void relax(Chunk chunk, int from, int cost, int to, int row, int col)
+        {
+            int step = maze.cost(row, col);
+            if (step < 0 || (step <= delta) != light)
+                return;
+            if (improve(to, cost + step, from))
+                chunk.add(to, cost + step);
+        }
+    }
+
+    // growable list of primitive ints
+    private static class IntList
+    {
+        private int[] items = new int[16];
+        private int size = 0;
+
+        int size()
+        {
+            return size;
+        }
+
+        void add(int item)
+        {
+            if (size == items.length)
+                items = Arrays.copyOf(items, 2*size);
+            items[size++] = item;
+        }
+
+        void addAll(IntList other)
+        {
+            if (size + other.size > items.length)
+                items = Arrays.copyOf(items, Math.max(2*items.length, size + other.size));
+            System.arraycopy(other.items, 0, items, size, other.size);
+            size += other.size;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(items, size);
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+}
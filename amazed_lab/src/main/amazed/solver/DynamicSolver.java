@@ -0,0 +1,256 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * <code>DynamicSolver</code> implements a solver for <code>Maze</code>
+ * objects that change while, or after, being searched. It finds a
+ * shortest path from the start node to a goal, and after tiles are
+ * changed with {@link Maze#setTile} it repairs the previous solution
+ * incrementally, revisiting only the nodes whose distance from the
+ * start is affected by the change.
+ * <p>
+ * The search is Lifelong Planning A* without heuristic (all goals are
+ * equally good), that is an incremental version of Dijkstra's
+ * algorithm. Every node reached by the search has a distance
+ * <code>g</code> from the start, and a one-step lookahead
+ * <code>rhs</code> computed from the distances of its neighbors; nodes
+ * where the two differ are <em>inconsistent</em>, and are kept in a
+ * priority queue ordered by the smaller of the two. A change to a
+ * tile only makes the changed node and its neighbors inconsistent, so
+ * that a repair expands few nodes when the change is small or far
+ * from the shortest path.
+ * <p>
+ * Changes are collected by a tile listener registered on the maze,
+ * and are applied at the next call to <code>repair</code>; thus tiles
+ * may be changed by other threads at any time.
+ */
+
+public class DynamicSolver
+    extends RecursiveTask<List<Integer>>
+{
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, and keeps track of later changes to
+     * <code>maze</code>.
+     *
+     * @param maze   the maze to be searched
+     */
+    public DynamicSolver(Maze maze)
+    {
+        this.maze = maze;
+        this.start = maze.start();
+        maze.addTileListener(changed::add);
+    }
+
+    private final Maze maze;
+    private final int start;
+    private int player;
+
+    // distance from start of every reached node; missing means infinite
+    private final Map<Integer, Integer> g = new HashMap<>();
+    // one-step lookahead of every reached node; missing means infinite
+    private final Map<Integer, Integer> rhs = new HashMap<>();
+    // inconsistent nodes, as key << 32 | id; entries whose key is out
+    // of date are skipped when polled
+    private final PriorityQueue<Long> queue = new PriorityQueue<>();
+    // goals that have been reached by the search
+    private final Set<Integer> goals = new HashSet<>();
+    // nodes whose tile changed since the last repair
+    private final Queue<Integer> changed = new ConcurrentLinkedQueue<>();
+    private boolean initialized = false;
+    private long expansions = 0;
+
+    /**
+     * Searches for and returns a shortest path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found, the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        return repair();
+    }
+
+    /**
+     * Applies all tile changes since the previous call (or since the
+     * solver was created), and returns a shortest path, as a list of
+     * node identifiers, from the start node to a goal node in the
+     * maze as it is now. The first call searches the maze from
+     * scratch; following calls reuse the results of the previous
+     * ones. If such a path cannot be found, the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    public List<Integer> repair()
+    {
+        if (!initialized) {
+            initialized = true;
+            changed.clear();
+            player = maze.newPlayer(start);
+            updateNode(start);
+        }
+        Integer id;
+        while ((id = changed.poll()) != null) {
+            if (maze.hasGoal(id))
+                goals.add(id);
+            else
+                goals.remove(id);
+            updateNode(id);
+            for (int nb: maze.neighbors(id))
+                updateNode(nb);
+        }
+        return computeShortestPath();
+    }
+
+    /**
+     * Returns the number of nodes expanded by all searches so far.
+     *
+     * @return   the number of times a node was taken from the queue
+     *           and made consistent
+     */
+    public long getExpansions()
+    {
+        return expansions;
+    }
+
+    private int g(int id)
+    {
+        return g.getOrDefault(id, INFINITY);
+    }
+
+    private int rhs(int id)
+    {
+        return rhs.getOrDefault(id, INFINITY);
+    }
+
+    private static int plusOne(int distance)
+    {
+        return distance == INFINITY ? INFINITY : distance + 1;
+    }
+
+    private static void set(Map<Integer, Integer> map, int id, int value)
+    {
+        if (value == INFINITY)
+            map.remove(id);
+        else
+            map.put(id, value);
+    }
+
+    // recompute rhs of node id, and queue it if it becomes inconsistent
+    private void updateNode(int id)
+    {
+        if (id != start) {
+            int best = INFINITY;
+            if (maze.isAccessible(id))
+                for (int nb: maze.neighbors(id))
+                    best = Math.min(best, plusOne(g(nb)));
+            set(rhs, id, best);
+        } else
+            set(rhs, id, maze.isAccessible(id) ? 0 : INFINITY);
+        int key = Math.min(g(id), rhs(id));
+        if (key != INFINITY && maze.hasGoal(id))
+            goals.add(id);
+        if (g(id) != rhs(id))
+            queue.add(((long) key << 32) | (id & 0xFFFFFFFFL));
+    }
+
+    // key of the best goal reached so far; it is settled once no
+    // queued node has a smaller key and the goal itself is consistent
+    private int goalKey()
+    {
+        int best = INFINITY;
+        for (int goal: goals)
+            best = Math.min(best, Math.min(g(goal), rhs(goal)));
+        return best;
+    }
+
+    private boolean goalsConsistent(int key)
+    {
+        for (int goal: goals)
+            if (Math.min(g(goal), rhs(goal)) == key && g(goal) != rhs(goal))
+                return false;
+        return true;
+    }
+
+    private List<Integer> computeShortestPath()
+    {
+        while (!queue.isEmpty()) {
+            long top = queue.peek();
+            int key = (int) (top >>> 32), id = (int) top;
+            int goalKey = goalKey();
+            if (key > goalKey || (key == goalKey && goalsConsistent(goalKey)))
+                break;
+            queue.poll();
+            // skip entries of nodes that became consistent, or were
+            // queued again with a different key
+            if (g(id) == rhs(id) || key != Math.min(g(id), rhs(id)))
+                continue;
+            expansions++;
+            maze.move(player, id);
+            if (g(id) > rhs(id))
+                // overconsistent: settle the node
+                set(g, id, rhs(id));
+            else {
+                // underconsistent: the node got farther; reconsider it
+                set(g, id, INFINITY);
+                updateNode(id);
+            }
+            for (int nb: maze.neighbors(id))
+                updateNode(nb);
+        }
+        int goalKey = goalKey();
+        if (goalKey == INFINITY)
+            return null;
+        for (int goal: goals)
+            if (g(goal) == goalKey)
+                return pathTo(goal);
+        return null;
+    }
+
+    // follow decreasing distances from goal back to the start
+    private List<Integer> pathTo(int goal)
+    {
+        List<Integer> path = new ArrayList<>(g(goal) + 1);
+        int current = goal;
+        path.add(current);
+        while (current != start) {
+            int next = current;
+            for (int nb: maze.neighbors(current))
+                if (g(nb) == g(current) - 1) {
+                    next = nb;
+                    break;
+                }
+            if (next == current)
+                return null;
+            current = next;
+            path.add(current);
+        }
+        Collections.reverse(path);
+        maze.move(player, goal);
+        return path;
+    }
+}
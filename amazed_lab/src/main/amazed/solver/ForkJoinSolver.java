@@ -2,14 +2,14 @@ package amazed.solver;
 
 import amazed.maze.Maze;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.Collections;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <code>ForkJoinSolver</code> implements a solver for
@@ -17,43 +17,59 @@ import java.util.concurrent.ForkJoinPool;
  * depth-first search.
  * <p>
  * Instances of <code>ForkJoinSolver</code> should be run by a
- * <code>ForkJoinPool</code> object.
+ * <code>ForkJoinPool</code> object; the search runs one worker task
+ * per thread of the pool that runs it, so the pool is chosen (and
+ * owned) by the caller.
+ * <p>
+ * Every worker searches depth first using its own stack of frontier
+ * nodes (see <code>WorkStack</code>), a growable array of primitive
+ * entries. A worker whose stack is empty steals the bottom half of
+ * the stack of another worker; the search ends when a worker finds a
+ * goal, or when no worker has work left. A worker that has just got
+ * work, by starting or by stealing, keeps its stack to itself until
+ * it has visited <code>forkAfter</code> nodes, so that work is only
+ * split once there is enough of it. Workers share a bitmap of
+ * visited nodes: a worker explores a node only if it is the first to
+ * set its bit. Each node's predecessor on the search is recorded, by
+ * the worker that explores it, in an array shared by all workers.
+ * Nodes are addressed by row-major cell index, and only converted to
+ * identifiers to move players and to return the path. The bitmap and
+ * the predecessors go off the heap in large mazes, as configured
+ * with <code>OffHeapArray.configure</code>. Workers stop,
+ * as when a goal is found, once the solver is cancelled.
+ * <p>
+ * A worker pushes the neighbors of a node in the order north, south,
+ * west, east, so it explores east first; with a
+ * <code>NeighborOrder</code>, it sorts them in arrays of its own and
+ * explores the first in order first. Each worker counts the nodes it
+ * explores, and <code>getExpanded</code> returns the total.
  */
 
-
-public class ForkJoinSolver extends SequentialSolver {
-
-    private ForkJoinPool fjPool;
-    private Set<Integer> visited = new ConcurrentSkipListSet<>(); // Create a thread-safe set
-    ConcurrentLinkedDeque<Integer> frontier = new ConcurrentLinkedDeque<>(); // Create a thread-safe stack
-
-
-
-
+public class ForkJoinSolver
+    extends SequentialSolver
+{
     /**
      * Creates a solver that searches in <code>maze</code> from the
      * start node to a goal.
      *
      * @param maze   the maze to be searched
      */
-
-    // Skapa en ForkJoinPool-instans, fixa workers osv kanske något arbete mm mm dsvdv.
     public ForkJoinSolver(Maze maze)
     {
         super(maze);
-        fjPool = new ForkJoinPool();
     }
 
     /**
      * Creates a solver that searches in <code>maze</code> from the
-     * start node to a goal, forking after a given number of visited
-     * nodes.
+     * start node to a goal, possibly in parallel.
      *
      * @param maze        the maze to be searched
-     * @param forkAfter   the number of steps (visited nodes) after
-     *                    which a parallel task is forked; if
-     *                    <code>forkAfter &lt;= 0</code> the solver never
-     *                    forks new tasks
+     * @param forkAfter   if <code>forkAfter &lt;= 0</code> the solver
+     *                    runs a single worker; otherwise it runs as many
+     *                    workers as the pool has threads, and every
+     *                    worker shares its work with the others only
+     *                    after visiting <code>forkAfter</code> nodes
+     *                    since it last got work
      */
     public ForkJoinSolver(Maze maze, int forkAfter)
     {
@@ -61,64 +77,267 @@ public class ForkJoinSolver extends SequentialSolver {
         this.forkAfter = forkAfter;
     }
 
+    /**
+     * Does nothing: this solver replaces the sequential data
+     * structures with primitive arrays allocated by
+     * <code>compute</code>.
+     */
+    @Override
+    protected void initStructures()
+    {
+    }
+
+    // one bit per cell, set by the worker that explores the cell
+    private LongCells visited;
+    // cell index --> index of the cell it was explored from, or -1
+    private IntCells predecessors;
+    private WorkStack[] stacks;
+    // number of workers that have, or are stealing, work
+    private final AtomicInteger active = new AtomicInteger();
+    // cell index of the goal found, or -1
+    private final AtomicInteger goal = new AtomicInteger(-1);
+    private int rows, cols;
+
     /**
      * Searches for and returns the path, as a list of node
      * identifiers, that goes from the start node to a goal node in
      * the maze. If such a path cannot be found (because there are no
      * goals, or all goals are unreacheable), the method returns
      * <code>null</code>.
-     <>
+     *
      * @return   the list of node identifiers from the start node to a
      *           goal node in the maze; <code>null</code> if such a path cannot
      *           be found.
      */
     @Override
-    public List<Integer> compute() {return parallelSearch(start);}
+    public List<Integer> compute()
+    {
+        if (search() < 0)
+            return null;
+        List<Integer> path = new ArrayList<>();
+        for (int index = goal.get(); index >= 0; index = predecessors.get(index))
+            path.add(maze.idAt(index / cols, index % cols));
+        Collections.reverse(path);
+        return path;
+    }
 
-    private List<Integer> parallelSearch(int start) {
+    /**
+     * Searches for a path, as <code>compute</code> does, and passes
+     * it to <code>consumer</code> in chunks, as
+     * <code>SequentialSolver.stream</code> does.
+     *
+     * @param consumer   the consumer of the path
+     * @return           the number of nodes of the path; <code>0</code> if
+     *                   such a path cannot be found
+     * @throws IOException   if the consumer fails
+     */
+    @Override
+    public int stream(PathConsumer consumer)
+    throws IOException
+    {
+        int goalIndex = search();
+        if (goalIndex < 0)
+            return 0;
+        int startIndex = maze.rowOf(start)*cols + maze.colOf(start);
+        // the chunks hold cell indexes, converted in place to identifiers
+        PathConsumer toIds = (cells, count) -> {
+            for (int k = 0; k < count; k++)
+                cells[k] = maze.idAt(cells[k] / cols, cells[k] % cols);
+            consumer.accept(cells, count);
+        };
+        return PathStreamer.stream(startIndex, goalIndex, predecessors::get, toIds);
+    }
 
-        int player = maze.newPlayer(start);
-        frontier.push(start);
-        int counter = 0;
+    // run the workers; return the cell index of the goal found, or -1
+    private int search()
+    {
+        rows = maze.rows();
+        cols = maze.cols();
+        visited = LongCells.of((maze.size() + 63) >>> 6);
+        predecessors = IntCells.of(maze.size());
+        ForkJoinPool pool = getPool();
+        int nWorkers = forkAfter <= 0 ? 1
+            : pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        stacks = new WorkStack[nWorkers];
+        List<Worker> workers = new ArrayList<>(nWorkers);
+        for (int k = 0; k < nWorkers; k++) {
+            stacks[k] = new WorkStack();
+            workers.add(new Worker(k));
+        }
+        // only the first worker starts with work; the others steal.
+        // Workers count themselves as active only once they run, so
+        // that no worker waits for one that the pool has not
+        // scheduled, which may be behind other searches sharing the
+        // pool
+        int startIndex = maze.rowOf(start)*cols + maze.colOf(start);
+        stacks[0].push(entry(startIndex, -1));
+        active.set(0);
+        ForkJoinTask.invokeAll(workers);
+        expanded = 0;
+        for (Worker worker: workers)
+            expanded += worker.expanded;
+        return goal.get();
+    }
 
-        while (!frontier.isEmpty()) {
-            int current = frontier.pop(); // get the new node to process
+    // stack entry: cell to explore, and cell it is reached from
+    private static long entry(int index, int from)
+    {
+        return ((long) index << 32) | (from & 0xFFFFFFFFL);
+    }
 
-            if (maze.hasGoal(current)) {
-                maze.move(player, current); //Move the player to the goal
-                return pathFromTo(start, current); // search finished: reconstruct and return path
-            }
+    // set the visited bit of cell index; return false if it was set
+    private boolean claim(int index)
+    {
+        int word = index >>> 6;
+        long bit = 1L << index, old;
+        while (((old = visited.get(word)) & bit) == 0)
+            if (visited.compareAndSet(word, old, old | bit))
+                return true;
+        return false;
+    }
 
-            if (!visited.contains(current)) { // if current node has not been visited yet
-                maze.move(player, current); // move player to current node
-                visited.add(current); // mark node as visited
+    // has a goal been found, or the search been cancelled?
+    private boolean isOver()
+    {
+        return goal.get() >= 0 || isCancelled();
+    }
 
-                for (int nb: maze.neighbors(current)) {
-                    counter++;
-                    frontier.push(nb); // add nb to the nodes to be processed
+    private boolean isVisited(int index)
+    {
+        return (visited.get(index >>> 6) & (1L << index)) != 0;
+    }
 
+    private class Worker
+        extends RecursiveAction
+    {
+        private final int number;
+        private final WorkStack stack;
+        private int player = -1;
+        private long expanded = 0;
+        // nodes visited since the worker last got work
+        private int steps;
+        // unvisited neighbors of a node and their ranks, when ordered
+        private final int[] cells = new int[4];
+        private final int[] ranks = new int[4];
+        private int count;
 
-                    // if nb has not been already visited,
-                    // nb can be reached from current (i.e., current is nb's predecessor)
-                    if (!visited.contains(nb))
-                        predecessor.put(nb, current);
-                }
+        Worker(int number)
+        {
+            this.number = number;
+            this.stack = stacks[number];
+        }
 
+        @Override
+        protected void compute()
+        {
+            active.incrementAndGet();
+            keep();
+            while (true) {
+                long entry;
+                while (!isOver() && (entry = stack.pop()) >= 0)
+                    explore((int) (entry >>> 32), (int) entry);
+                if (isOver())
+                    return;
+                active.decrementAndGet();
+                if (!steal())
+                    return;
             }
+        }
 
-            if (counter == 2) {
-                int next = frontier.pop();
-                // Create a new ForkJoinSolver instance with the current maze, player position, and forkAfter value
-                ForkJoinSolver newSolverBorkShmork = new ForkJoinSolver(maze, forkAfter);
-                newSolverBorkShmork.start = next;
-                fjPool.invoke(newSolverBorkShmork);
+        private void explore(int index, int from)
+        {
+            if (!claim(index))
+                return;
+            if (++steps == forkAfter)
+                stack.setShared(true);
+            predecessors.set(index, from);
+            int row = index / cols, col = index % cols;
+            int id = maze.idAt(row, col);
+            if (player < 0)
+                player = maze.newPlayer(id);
+            else
+                maze.move(player, id);
+            if (maze.hasGoal(row, col)) {
+                goal.compareAndSet(-1, index);
+                return;
+            }
+            expanded++;
+            if (order != null) {
+                exploreOrdered(index, row, col);
+                return;
             }
+            if (row > 0)
+                push(index - cols, row - 1, col, index);
+            if (row < rows - 1)
+                push(index + cols, row + 1, col, index);
+            if (col > 0)
+                push(index - 1, row, col - 1, index);
+            if (col < cols - 1)
+                push(index + 1, row, col + 1, index);
+        }
+
+        private void push(int index, int row, int col, int from)
+        {
+            if (!isVisited(index) && maze.isAccessible(row, col))
+                stack.push(entry(index, from));
+        }
 
-            // to fork a new thread you just create a new instance of ForkJoinSolver,
-            // with suitable parameters, and call fork() on the instance.
+        private void exploreOrdered(int index, int row, int col)
+        {
+            count = 0;
+            if (row > 0)
+                rank(index - cols, row - 1, col);
+            if (row < rows - 1)
+                rank(index + cols, row + 1, col);
+            if (col > 0)
+                rank(index - 1, row, col - 1);
+            if (col < cols - 1)
+                rank(index + 1, row, col + 1);
+            // the highest rank goes to the bottom of the stack
+            for (int k = count - 1; k >= 0; k--)
+                stack.push(entry(cells[k], index));
+        }
+
+        private void rank(int index, int row, int col)
+        {
+            if (!isVisited(index) && maze.isAccessible(row, col))
+                count = addRanked(cells, ranks, count, index, order.rank(row, col));
+        }
 
+        // keep the stack to this worker until it visits forkAfter nodes
+        private void keep()
+        {
+            steps = 0;
+            stack.setShared(false);
         }
 
-        return null;
+        // take half the work of another worker; return false when
+        // the search is over, or when no stack has work and no worker
+        // is active. Work is only ever in a stack, or held by an active
+        // worker; so a worker that gives up leaves the rest of the
+        // work to active workers, or to the first worker, which
+        // explores its own stack when it starts
+        private boolean steal()
+        {
+            while (!isOver()) {
+                for (int k = 1; k < stacks.length; k++) {
+                    WorkStack victim = stacks[(number + k) % stacks.length];
+                    if (victim.size() == 0 || !victim.isShared())
+                        continue;
+                    // count as active before taking work, so that
+                    // others never see work outside active workers
+                    active.incrementAndGet();
+                    if (victim.stealHalfInto(stack) > 0) {
+                        keep();
+                        return true;
+                    }
+                    active.decrementAndGet();
+                }
+                if (active.get() == 0)
+                    return false;
+                Thread.yield();
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,227 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <code>HierarchicalSolver</code> implements a solver for
+ * <code>Maze</code> objects using hierarchical path-finding (HPA*),
+ * which is suited to very large mazes.
+ * <p>
+ * The maze is first abstracted into a graph of entrances between
+ * square clusters of cells, with precomputed distances between the
+ * entrances of every cluster (see <code>ClusterGraph</code>); the
+ * precomputation processes clusters in parallel, and its result can
+ * be saved with <code>writeAbstraction</code> and reused with
+ * <code>readAbstraction</code>. A query connects the start node to
+ * the entrances of its cluster, finds a shortest path in the abstract
+ * graph to a goal, and finally refines every step of that path into
+ * cells by searches confined to one cluster, which run in parallel.
+ * Thus, after precomputation the cost of a query depends mostly on
+ * the number of clusters, not of cells.
+ * <p>
+ * The path found is complete (if a goal is reachable, a path is
+ * found) but not necessarily shortest, since it passes through
+ * entrances at fixed cells. The abstraction is not updated if the
+ * maze changes.
+ */
+
+public class HierarchicalSolver
+    extends RecursiveTask<List<Integer>>
+{
+    /**
+     * The side, in cells, of clusters unless specified otherwise.
+     */
+    public static final int DEFAULT_CLUSTER_SIZE = 64;
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, with clusters of
+     * <code>DEFAULT_CLUSTER_SIZE</code> cells per side.
+     *
+     * @param maze   the maze to be searched
+     */
+    public HierarchicalSolver(Maze maze)
+    {
+        this(maze, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, with clusters of
+     * <code>clusterSize</code> cells per side.
+     *
+     * @param maze          the maze to be searched
+     * @param clusterSize   the side of clusters, in cells
+     */
+    public HierarchicalSolver(Maze maze, int clusterSize)
+    {
+        this.maze = maze;
+        this.clusterSize = Math.max(1, clusterSize);
+    }
+
+    private final Maze maze;
+    private final int clusterSize;
+    private ClusterGraph graph;
+
+    /**
+     * Reads an abstraction of the maze previously saved by
+     * <code>writeAbstraction</code>, and uses it instead of computing
+     * it anew. The abstraction is ignored if it was computed for a
+     * maze of different size or with different clusters.
+     *
+     * @param in   the stream from which the abstraction is read
+     * @return     <code>true</code> if the abstraction is used;
+     *             <code>false</code> otherwise
+     * @throws IOException   if reading from <code>in</code> fails
+     */
+    public boolean readAbstraction(DataInputStream in)
+    throws IOException
+    {
+        ClusterGraph read = ClusterGraph.read(in, maze.rows(), maze.cols(), clusterSize);
+        if (read != null)
+            graph = read;
+        return read != null;
+    }
+
+    /**
+     * Writes the abstraction of the maze used by this solver, so that
+     * it can be reused with <code>readAbstraction</code>. This method
+     * must be called after <code>compute</code>.
+     *
+     * @param out   the stream to which the abstraction is written
+     * @throws IOException   if writing to <code>out</code> fails
+     */
+    public void writeAbstraction(DataOutputStream out)
+    throws IOException
+    {
+        graph.write(out);
+    }
+
+    /**
+     * Searches for and returns the path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        if (graph == null)
+            graph = ClusterGraph.build(maze, clusterSize);
+        int start = maze.start();
+        int startCell = maze.rowOf(start)*maze.cols() + maze.colOf(start);
+        int player = maze.newPlayer(start);
+
+        // abstract nodes, plus the start and a virtual goal joined to
+        // every node that has a goal in its cluster
+        int n = graph.cells.length, source = n, target = n + 1;
+        ClusterSearch local = new ClusterSearch(maze, graph, graph.clusterOf(startCell));
+        local.run(startCell);
+        int[] distance = new int[n + 2];
+        int[] previous = new int[n + 2];
+        Arrays.fill(distance, ClusterGraph.INFINITY);
+        Arrays.fill(previous, -1);
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        distance[source] = 0;
+        queue.add((long) source);
+        while (!queue.isEmpty()) {
+            long top = queue.poll();
+            int node = (int) top, d = (int) (top >>> 32);
+            if (d != distance[node])
+                continue;
+            if (node == target)
+                break;
+            if (node == source) {
+                int c = graph.clusterOf(startCell);
+                for (int k = graph.clusterStart[c]; k < graph.clusterStart[c + 1]; k++) {
+                    int next = graph.clusterNodes[k];
+                    relax(queue, distance, previous, node, next, local.distance(graph.cells[next]));
+                }
+                if (local.nearestGoal() >= 0)
+                    relax(queue, distance, previous, node, target, local.distance(local.nearestGoal()));
+                continue;
+            }
+            int cell = graph.cells[node];
+            maze.move(player, maze.idAt(cell / graph.cols, cell % graph.cols));
+            for (int e = graph.edgeStart[node]; e < graph.edgeStart[node + 1]; e++)
+                relax(queue, distance, previous, node, graph.edgeTarget[e], graph.edgeCost[e]);
+            relax(queue, distance, previous, node, target, graph.heartCost[node]);
+        }
+        if (distance[target] == ClusterGraph.INFINITY)
+            return null;
+
+        // abstract path, from the start to the goal
+        List<Integer> nodes = new ArrayList<>();
+        for (int node = target; node != -1; node = previous[node])
+            nodes.add(node);
+        Collections.reverse(nodes);
+
+        // refine every step within a cluster in parallel
+        List<RecursiveTask<int[]>> steps = new ArrayList<>();
+        int from = startCell;
+        for (int k = 1; k < nodes.size(); k++) {
+            int node = nodes.get(k), to;
+            if (node == target)
+                to = nodes.get(k - 1) == source ? local.nearestGoal() : graph.heartCell[nodes.get(k - 1)];
+            else
+                to = graph.cells[node];
+            steps.add(refine(from, to));
+            from = to;
+        }
+        ForkJoinTask.invokeAll(steps);
+        List<Integer> path = new ArrayList<>(distance[target] + 1);
+        path.add(start);
+        for (RecursiveTask<int[]> step: steps)
+            for (int cell: step.join())
+                path.add(maze.idAt(cell / graph.cols, cell % graph.cols));
+        maze.move(player, path.get(path.size() - 1));
+        return path;
+    }
+
+    private static void relax(PriorityQueue<Long> queue, int[] distance, int[] previous,
+                              int node, int next, int cost)
+    {
+        if (cost == ClusterGraph.INFINITY)
+            return;
+        int d = distance[node] + cost;
+        if (d < distance[next]) {
+            distance[next] = d;
+            previous[next] = node;
+            queue.add(((long) d << 32) | next);
+        }
+    }
+
+    // cells after `from' on a shortest path to `to', which is either
+    // in the same cluster or adjacent to `from'
+    private RecursiveTask<int[]> refine(int from, int to)
+    {
+        return new RecursiveTask<int[]>() {
+            @Override
+            protected int[] compute() {
+                if (graph.clusterOf(from) != graph.clusterOf(to))
+                    return new int[] { to };
+                if (from == to)
+                    return new int[0];
+                ClusterSearch search = new ClusterSearch(maze, graph, graph.clusterOf(from));
+                search.run(from);
+                return search.pathTo(to);
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package amazed.solver;
+
+import amazed.maze.OffHeapArray;
+
+/**
+ * Array of <code>int</code>s, one per cell of a maze, with plain
+ * reads and writes: each element is written by a single task, and
+ * read after that task is joined. Small arrays are an
+ * <code>int[]</code> on the heap; arrays that the policy of
+ * <code>OffHeapArray</code> sends off the heap are an
+ * <code>OffHeapArray</code>.
+ */
+
+abstract class IntCells
+{
+    // array of length ints, all zero
+    static IntCells of(int length)
+    {
+        if (OffHeapArray.isUsedFor(4L*length))
+            return new OffHeap(OffHeapArray.allocate(4L*length));
+        return new Heap(new int[length]);
+    }
+
+    abstract int get(int index);
+
+    abstract void set(int index, int value);
+
+    private static final class Heap
+        extends IntCells
+    {
+        private final int[] ints;
+
+        Heap(int[] ints)
+        {
+            this.ints = ints;
+        }
+
+        @Override
+        int get(int index)
+        {
+            return ints[index];
+        }
+
+        @Override
+        void set(int index, int value)
+        {
+            ints[index] = value;
+        }
+    }
+
+    private static final class OffHeap
+        extends IntCells
+    {
+        private final OffHeapArray ints;
+
+        OffHeap(OffHeapArray ints)
+        {
+            this.ints = ints;
+        }
+
+        @Override
+        int get(int index)
+        {
+            return ints.getInt(index);
+        }
+
+        @Override
+        void set(int index, int value)
+        {
+            ints.setInt(index, value);
+        }
+    }
+}
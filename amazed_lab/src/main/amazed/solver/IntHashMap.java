@@ -0,0 +1,127 @@
+package amazed.solver;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from non-negative <code>int</code> keys to
+ * <code>int</code> values, stored in two primitive arrays with open
+ * addressing and linear probing. It takes 8 bytes per slot, and keeps
+ * at most half of the slots full, instead of the several dozen bytes
+ * per entry of a <code>HashMap&lt;Integer, Integer&gt;</code>.
+ * <p>
+ * Entries are iterated over by slot: for every slot
+ * <code>s &lt; capacity()</code> with <code>keyAt(s) &gt;= 0</code>.
+ */
+
+final class IntHashMap
+{
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    IntHashMap()
+    {
+        this(16);
+    }
+
+    IntHashMap(int expected)
+    {
+        int capacity = Integer.highestOneBit(Math.max(16, 2*expected - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private static int slot(int key, int mask)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int capacity()
+    {
+        return keys.length;
+    }
+
+    int keyAt(int slot)
+    {
+        return keys[slot];
+    }
+
+    int valueAt(int slot)
+    {
+        return values[slot];
+    }
+
+    // memory taken by the map's arrays, in bytes
+    long bytes()
+    {
+        return 8L*keys.length;
+    }
+
+    boolean containsKey(int key)
+    {
+        int mask = keys.length - 1;
+        for (int s = slot(key, mask); keys[s] != FREE; s = (s + 1) & mask)
+            if (keys[s] == key)
+                return true;
+        return false;
+    }
+
+    // value of key, or `missing' if there is no such key
+    int get(int key, int missing)
+    {
+        int mask = keys.length - 1;
+        for (int s = slot(key, mask); keys[s] != FREE; s = (s + 1) & mask)
+            if (keys[s] == key)
+                return values[s];
+        return missing;
+    }
+
+    // map key to value, unless key is already in the map; return
+    // true if the key was added
+    boolean putIfAbsent(int key, int value)
+    {
+        int mask = keys.length - 1;
+        int s = slot(key, mask);
+        for (; keys[s] != FREE; s = (s + 1) & mask)
+            if (keys[s] == key)
+                return false;
+        keys[s] = key;
+        values[s] = value;
+        if (++size > keys.length / 2)
+            grow();
+        return true;
+    }
+
+    void clear()
+    {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    private void grow()
+    {
+        int[] oldKeys = keys, oldValues = values;
+        keys = new int[2*oldKeys.length];
+        values = new int[2*oldKeys.length];
+        Arrays.fill(keys, FREE);
+        int mask = keys.length - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] == FREE)
+                continue;
+            int s = slot(oldKeys[k], mask);
+            while (keys[s] != FREE)
+                s = (s + 1) & mask;
+            keys[s] = oldKeys[k];
+            values[s] = oldValues[k];
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package amazed.solver;
+
+import amazed.maze.OffHeapArray;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Array of <code>long</code>s, one or more per cell of a maze, with
+ * volatile reads and atomic updates. Small arrays are an
+ * <code>AtomicLongArray</code> on the heap; arrays that the policy of
+ * <code>OffHeapArray</code> sends off the heap are an
+ * <code>OffHeapArray</code>. A solver only ever uses one of the two
+ * kinds, so calls stay monomorphic.
+ */
+
+abstract class LongCells
+{
+    // array of length longs, all zero
+    static LongCells of(int length)
+    {
+        if (OffHeapArray.isUsedFor(8L*length))
+            return new OffHeap(OffHeapArray.allocate(8L*length));
+        return new Heap(new AtomicLongArray(length));
+    }
+
+    abstract long get(int index);
+
+    abstract void set(int index, long value);
+
+    abstract boolean compareAndSet(int index, long expect, long update);
+
+    private static final class Heap
+        extends LongCells
+    {
+        private final AtomicLongArray longs;
+
+        Heap(AtomicLongArray longs)
+        {
+            this.longs = longs;
+        }
+
+        @Override
+        long get(int index)
+        {
+            return longs.get(index);
+        }
+
+        @Override
+        void set(int index, long value)
+        {
+            longs.set(index, value);
+        }
+
+        @Override
+        boolean compareAndSet(int index, long expect, long update)
+        {
+            return longs.compareAndSet(index, expect, update);
+        }
+    }
+
+    private static final class OffHeap
+        extends LongCells
+    {
+        private final OffHeapArray longs;
+
+        OffHeap(OffHeapArray longs)
+        {
+            this.longs = longs;
+        }
+
+        @Override
+        long get(int index)
+        {
+            return longs.getLong(index);
+        }
+
+        @Override
+        void set(int index, long value)
+        {
+            longs.setLong(index, value);
+        }
+
+        @Override
+        boolean compareAndSet(int index, long expect, long update)
+        {
+            return longs.compareAndSetLong(index, expect, update);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.Arrays;
+
+/**
+ * Policy for the order in which a depth-first solver explores the
+ * neighbors of a node: neighbors of lower rank are explored first,
+ * and neighbors of equal rank in the order north, south, west, east.
+ * <p>
+ * A policy ranks cells by row and column, so that a solver can rank
+ * and sort neighbors without allocating: <code>SequentialSolver</code>
+ * and <code>ForkJoinSolver</code> keep the ranks of the at most four
+ * neighbors of a node in arrays of their own, and push the
+ * neighbors on their stacks in decreasing order of rank. Ranking
+ * must be cheap, and safe to call from several threads at once.
+ * <p>
+ * Method <code>nearestGoal</code> ranks a cell by its distance to the
+ * nearest goal; method <code>towardGoals</code> biases the search
+ * towards the middle of the goals. Both ignore walls, and both
+ * locate the goals once, by scanning the grid when the policy is
+ * created; ranking then takes constant time, and allocates nothing.
+ */
+
+@FunctionalInterface
+public interface NeighborOrder
+{
+    /**
+     * Returns the rank of the cell in row <code>row</code> and
+     * column <code>col</code>, which is on the grid.
+     *
+     * @param row   the row of the cell
+     * @param col   the column of the cell
+     * @return      the rank of the cell; lower ranks are explored first
+     */
+    int rank(int row, int col);
+
+    /**
+     * The largest number of goals to which <code>nearestGoal</code>
+     * computes distances for every rank.
+     */
+    int MAX_GOALS = 16;
+
+    /**
+     * The largest number of blocks of the distance table of
+     * <code>nearestGoal</code>.
+     */
+    int MAX_BLOCKS = 1 << 20;
+
+    /**
+     * Returns a policy that explores first the neighbors closest to
+     * the nearest goal of <code>maze</code>, by Manhattan distance.
+     * If the maze has at most <code>MAX_GOALS</code> goals, the
+     * distance to each goal is computed for every rank. Otherwise,
+     * distances are precomputed, by a breadth-first search from all
+     * goals at once, into a table of square blocks of cells: single
+     * cells if the maze has at most <code>MAX_BLOCKS</code> cells, and
+     * otherwise the smallest blocks with a power of 2 side such that
+     * there are at most <code>MAX_BLOCKS</code> of them, within
+     * which all cells have the same rank.
+     *
+     * @param maze   the maze to be searched
+     * @return       the policy; all cells have the same rank if
+     *               <code>maze</code> has no goals
+     */
+    static NeighborOrder nearestGoal(Maze maze)
+    {
+        int rows = maze.rows(), cols = maze.cols();
+        int[] goalRows = new int[MAX_GOALS], goalCols = new int[MAX_GOALS];
+        int goals = 0;
+        for (int row = 0; row < rows && goals <= MAX_GOALS; row++)
+            for (int col = 0; col < cols && goals <= MAX_GOALS; col++)
+                if (maze.hasGoal(row, col)) {
+                    if (goals < MAX_GOALS) {
+                        goalRows[goals] = row;
+                        goalCols[goals] = col;
+                    }
+                    goals++;
+                }
+        if (goals <= MAX_GOALS) {
+            int count = goals;
+            return (row, col) -> {
+                int nearest = Integer.MAX_VALUE;
+                for (int k = 0; k < count; k++)
+                    nearest = Math.min(nearest, Math.abs(row - goalRows[k]) + Math.abs(col - goalCols[k]));
+                return nearest;
+            };
+        }
+        int shift = 0;
+        while ((long) (((rows - 1) >> shift) + 1) * (((cols - 1) >> shift) + 1) > MAX_BLOCKS)
+            shift++;
+        int blockShift = shift;
+        int blockRows = ((rows - 1) >> shift) + 1, blockCols = ((cols - 1) >> shift) + 1;
+        int[] distance = new int[blockRows*blockCols];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        int[] queue = new int[distance.length];
+        int head = 0, tail = 0;
+        for (int row = 0; row < rows; row++)
+            for (int col = 0; col < cols; col++) {
+                int block = (row >> shift)*blockCols + (col >> shift);
+                if (distance[block] != 0 && maze.hasGoal(row, col)) {
+                    distance[block] = 0;
+                    queue[tail++] = block;
+                }
+            }
+        while (head < tail) {
+            int block = queue[head++];
+            int row = block / blockCols, col = block % blockCols, next = distance[block] + 1;
+            if (row > 0 && distance[block - blockCols] > next) {
+                distance[block - blockCols] = next;
+                queue[tail++] = block - blockCols;
+            }
+            if (row < blockRows - 1 && distance[block + blockCols] > next) {
+                distance[block + blockCols] = next;
+                queue[tail++] = block + blockCols;
+            }
+            if (col > 0 && distance[block - 1] > next) {
+                distance[block - 1] = next;
+                queue[tail++] = block - 1;
+            }
+            if (col < blockCols - 1 && distance[block + 1] > next) {
+                distance[block + 1] = next;
+                queue[tail++] = block + 1;
+            }
+        }
+        return (row, col) -> distance[(row >> blockShift)*blockCols + (col >> blockShift)];
+    }
+
+    /**
+     * Returns a policy that explores first the neighbors closest to
+     * the middle of the goals of <code>maze</code>, by Manhattan
+     * distance, that is, that moves in the direction of the goals. It
+     * costs no memory, and suits mazes whose goals are close to each
+     * other.
+     *
+     * @param maze   the maze to be searched
+     * @return       the policy; all cells have the same rank if
+     *               <code>maze</code> has no goals
+     */
+    static NeighborOrder towardGoals(Maze maze)
+    {
+        long rowSum = 0, colSum = 0, goals = 0;
+        for (int row = 0; row < maze.rows(); row++)
+            for (int col = 0; col < maze.cols(); col++)
+                if (maze.hasGoal(row, col)) {
+                    rowSum += row;
+                    colSum += col;
+                    goals++;
+                }
+        if (goals == 0)
+            return (row, col) -> 0;
+        int middleRow = (int) (rowSum / goals), middleCol = (int) (colSum / goals);
+        return (row, col) -> Math.abs(row - middleRow) + Math.abs(col - middleCol);
+    }
+}
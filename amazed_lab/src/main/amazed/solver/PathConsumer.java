@@ -0,0 +1,28 @@
+package amazed.solver;
+
+import java.io.IOException;
+
+/**
+ * Receives a path found by a solver in consecutive chunks of node
+ * identifiers, in order from the start node to the goal, as the path
+ * is reconstructed. A consumer can thus process or write a path
+ * without the whole path ever being held in memory.
+ * <p>
+ * The array holding a chunk belongs to the solver, which reuses it
+ * for the next chunk; a consumer that keeps nodes must copy them.
+ */
+
+@FunctionalInterface
+public interface PathConsumer
+{
+    /**
+     * Receives the next <code>count</code> nodes of the path, in
+     * <code>nodes[0]</code> to <code>nodes[count - 1]</code>.
+     *
+     * @param nodes   the identifiers of the nodes
+     * @param count   the number of nodes in the chunk
+     * @throws IOException   if the consumer fails to write the nodes
+     */
+    void accept(int[] nodes, int count)
+    throws IOException;
+}
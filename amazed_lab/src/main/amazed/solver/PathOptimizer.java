@@ -0,0 +1,332 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <code>PathOptimizer</code> shortens paths found by solvers, such
+ * as the depth-first paths of <code>SequentialSolver</code> and
+ * <code>ForkJoinSolver</code>, without searching the maze again.
+ * <p>
+ * A path is shortened by a single greedy walk along it. From the
+ * node at position <code>i</code>, the walk jumps to the last
+ * position where the same node occurs again, which removes a cycle,
+ * or else to the last position of any of the node's neighbors on the
+ * grid, which cuts a detour; the last positions are kept in a
+ * primitive hash map from cell index to position. Every step of the
+ * walk moves to a cell adjacent to the previous one, which was on the
+ * path, so the result is a valid path whenever the input is; it
+ * visits no cell twice, and has no two cells adjacent on the grid
+ * that are not consecutive. Since moves never get cheaper by being
+ * longer, it also costs no more than the input in weighted mazes.
+ * <p>
+ * In unweighted mazes, the walk is followed by two passes that
+ * straighten the path: every stretch of <code>WINDOW</code> nodes is
+ * replaced by a shortest path between its ends found by a
+ * breadth-first search confined to the bounding box of the stretch,
+ * plus a margin of <code>MARGIN</code> cells. The second pass shifts
+ * the stretches by half a window, so that detours across the ends of
+ * stretches of the first pass are also straightened; a last walk
+ * then removes the cycles that stitching may introduce. Each search
+ * costs time proportional to the area of its box, not to the size of
+ * the maze.
+ * <p>
+ * Long paths are split into chunks of <code>CHUNK</code> nodes,
+ * which share their end nodes; each chunk is converted to cell
+ * indexes and shortened in parallel, and a final sequential walk over
+ * the joined chunks removes cycles and detours that span chunks. The
+ * shortened path is converted back to node identifiers in parallel.
+ * Parallel tasks run in the current fork/join pool, or in the common
+ * pool.
+ */
+
+public class PathOptimizer
+{
+    // number of nodes of the chunks processed by a single task
+    private static final int CHUNK = 1 << 14;
+    // number of moves of the stretches of path that are straightened
+    private static final int WINDOW = 64;
+    // cells around the bounding box of a stretch that its search may enter
+    private static final int MARGIN = 4;
+    // largest side of the box of a search
+    private static final int BOX = WINDOW + 1 + 2*MARGIN;
+
+    private final Maze maze;
+    private final int cols;
+    private final int size;
+    private final int rows;
+
+    /**
+     * Creates an optimizer for paths in <code>maze</code>.
+     *
+     * @param maze   the maze of the paths
+     */
+    public PathOptimizer(Maze maze)
+    {
+        this.maze = maze;
+        this.cols = maze.cols();
+        this.size = maze.size();
+        this.rows = maze.rows();
+    }
+
+    /**
+     * Returns a path with the same first and last nodes as
+     * <code>path</code>, and no more nodes, without cycles or
+     * detours.
+     *
+     * @param path   a path in the maze, as a list of node identifiers
+     * @return       the shortened path, as a new list of node
+     *               identifiers; <code>path</code> itself if it is too
+     *               short to shorten
+     */
+    public List<Integer> optimize(List<Integer> path)
+    {
+        if (path.size() < 3)
+            return path;
+        // unbox first: lists may not have fast random access
+        int[] ids = new int[path.size()];
+        int n = 0;
+        for (int id: path)
+            ids[n++] = id;
+        int[] cells;
+        if (n <= CHUNK) {
+            cells = new int[n];
+            for (int k = 0; k < n; k++)
+                cells[k] = maze.indexOf(ids[k]);
+            cells = shorten(cells);
+        } else {
+            // chunk c covers positions c*CHUNK to (c+1)*CHUNK, inclusive
+            int[][] parts = new int[(n - 2) / CHUNK + 1][];
+            new Shorten(ids, parts, 0, parts.length).invoke();
+            int joined = 1;
+            for (int[] part: parts)
+                joined += part.length - 1;
+            cells = new int[joined];
+            cells[0] = parts[0][0];
+            int at = 1;
+            for (int[] part: parts) {
+                System.arraycopy(part, 1, cells, at, part.length - 1);
+                at += part.length - 1;
+            }
+            cells = walk(cells, joined);
+        }
+        Integer[] result = new Integer[cells.length];
+        new ToIds(cells, result, 0, cells.length).invoke();
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    // walk, and straighten in unweighted mazes, a path of cells,
+    // keeping its ends
+    private int[] shorten(int[] cells)
+    {
+        cells = walk(cells, cells.length);
+        if (maze.isWeighted())
+            return cells;
+        Window window = new Window();
+        cells = window.straighten(cells, 0);
+        cells = window.straighten(cells, WINDOW / 2);
+        return walk(cells, cells.length);
+    }
+
+    // greedy walk along the first n cells of path, as described above;
+    // return the cells visited by the walk
+    private int[] walk(int[] path, int n)
+    {
+        IntHashMap last = new IntHashMap(n);
+        // scanning backwards, the first position put is the last one
+        for (int k = n - 1; k >= 0; k--)
+            if (path[k] >= 0)
+                last.putIfAbsent(path[k], k);
+        int[] result = new int[n];
+        int length = 0;
+        result[length++] = path[0];
+        int i = 0;
+        while (i < n - 1) {
+            int cell = path[i];
+            int again = cell < 0 ? -1 : last.get(cell, -1);
+            if (again > i) {
+                // a cycle back to cell: skip it, cell is already in result
+                i = again;
+                continue;
+            }
+            int next = i + 1;
+            if (cell >= 0) {
+                if (cell >= cols)
+                    next = Math.max(next, last.get(cell - cols, -1));
+                if (cell + cols < size)
+                    next = Math.max(next, last.get(cell + cols, -1));
+                if (cell % cols != 0)
+                    next = Math.max(next, last.get(cell - 1, -1));
+                if ((cell + 1) % cols != 0)
+                    next = Math.max(next, last.get(cell + 1, -1));
+            }
+            i = next;
+            result[length++] = path[i];
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    // breadth-first search within the box of a stretch of path; one
+    // per task, reused for all stretches
+    private class Window
+    {
+        // local index --> distance from the source plus 1, or 0 if not reached
+        private final int[] distance = new int[BOX*BOX];
+        private final int[] parent = new int[BOX*BOX];
+        private final int[] queue = new int[BOX*BOX];
+        private int top, left, height, width, tail;
+
+        // the path with the stretches between positions 0, offset,
+        // offset + WINDOW, offset + 2*WINDOW, ... replaced by shortest
+        // paths between their ends, which are no longer
+        int[] straighten(int[] path, int offset)
+        {
+            int[] result = new int[path.length];
+            int length = 0;
+            result[length++] = path[0];
+            int last = path.length - 1;
+            int from = 0, to = Math.min(offset > 0 ? offset : WINDOW, last);
+            while (from < last) {
+                int reached = search(path, from, to);
+                if (reached < 0) {
+                    // a cell that is not on the grid, or not
+                    // accessible: keep the stretch
+                    System.arraycopy(path, from + 1, result, length, to - from);
+                    length += to - from;
+                } else {
+                    // the cells of the path found, backwards from path[to]
+                    int moves = distance[reached] - 1;
+                    for (int k = length + moves - 1, current = reached; k >= length; k--) {
+                        result[k] = (top + current / width)*cols + left + current % width;
+                        current = parent[current];
+                    }
+                    length += moves;
+                }
+                from = to;
+                to = Math.min(from + WINDOW, last);
+            }
+            return Arrays.copyOf(result, length);
+        }
+
+        // search from path[from] to path[to] within the box of
+        // path[from..to]; return the local index of path[to], or -1
+        // if it cannot be reached
+        private int search(int[] path, int from, int to)
+        {
+            int minRow = Integer.MAX_VALUE, maxRow = -1, minCol = Integer.MAX_VALUE, maxCol = -1;
+            for (int k = from; k <= to; k++) {
+                if (path[k] < 0)
+                    return -1;
+                int row = path[k] / cols, col = path[k] % cols;
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+            }
+            top = Math.max(0, minRow - MARGIN);
+            left = Math.max(0, minCol - MARGIN);
+            height = Math.min(rows - 1, maxRow + MARGIN) - top + 1;
+            width = Math.min(cols - 1, maxCol + MARGIN) - left + 1;
+            Arrays.fill(distance, 0, height*width, 0);
+            int source = local(path[from]), target = local(path[to]);
+            int head = 0;
+            tail = 0;
+            distance[source] = 1;
+            queue[tail++] = source;
+            while (head < tail && distance[target] == 0) {
+                int current = queue[head++];
+                int row = current / width, col = current % width;
+                if (row > 0)
+                    visit(current, current - width, row - 1, col);
+                if (row < height - 1)
+                    visit(current, current + width, row + 1, col);
+                if (col > 0)
+                    visit(current, current - 1, row, col - 1);
+                if (col < width - 1)
+                    visit(current, current + 1, row, col + 1);
+            }
+            return distance[target] == 0 ? -1 : target;
+        }
+
+        private void visit(int from, int next, int row, int col)
+        {
+            if (distance[next] == 0 && maze.isAccessible(top + row, left + col)) {
+                distance[next] = distance[from] + 1;
+                parent[next] = from;
+                queue[tail++] = next;
+            }
+        }
+
+        private int local(int cell)
+        {
+            return (cell / cols - top)*width + cell % cols - left;
+        }
+    }
+
+    // converts chunks from, ..., to - 1 of ids to cells, and shortens them
+    private class Shorten
+        extends RecursiveAction
+    {
+        private final int[] ids;
+        private final int[][] parts;
+        private final int from, to;
+
+        Shorten(int[] ids, int[][] parts, int from, int to)
+        {
+            this.ids = ids;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Shorten(ids, parts, from, middle),
+                          new Shorten(ids, parts, middle, to));
+                return;
+            }
+            int first = from*CHUNK, last = Math.min(ids.length - 1, first + CHUNK);
+            int[] cells = new int[last - first + 1];
+            for (int k = 0; k < cells.length; k++)
+                cells[k] = maze.indexOf(ids[first + k]);
+            parts[from] = shorten(cells);
+        }
+    }
+
+    // converts cells from, ..., to - 1 to node identifiers
+    private class ToIds
+        extends RecursiveAction
+    {
+        private final int[] cells;
+        private final Integer[] ids;
+        private final int from, to;
+
+        ToIds(int[] cells, Integer[] ids, int from, int to)
+        {
+            this.cells = cells;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ToIds(cells, ids, from, middle),
+                          new ToIds(cells, ids, middle, to));
+                return;
+            }
+            for (int k = from; k < to; k++)
+                ids[k] = cells[k] < 0 ? PathStreamer.NONE : maze.idAt(cells[k] / cols, cells[k] % cols);
+        }
+    }
+}
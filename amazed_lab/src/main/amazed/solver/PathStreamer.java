@@ -0,0 +1,78 @@
+package amazed.solver;
+
+import java.io.IOException;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Reconstructs a path from a predecessor relation and hands it, in
+ * order from its first node, to a <code>PathConsumer</code>.
+ * <p>
+ * Following predecessors yields the path backwards, from its last
+ * node. Instead of storing the whole path to reverse it, a first pass
+ * measures the length <code>n</code> of the path, and a second pass
+ * records a checkpoint every <code>sqrt(n)</code> nodes. The segments
+ * between checkpoints are then rebuilt, starting from the one closest
+ * to the first node, each into a buffer of <code>sqrt(n)</code>
+ * nodes that is passed to the consumer. This takes three walks along
+ * the path and <code>O(sqrt(n))</code> memory.
+ */
+
+final class PathStreamer
+{
+    // smallest chunk handed to consumers, so that short paths are
+    // passed in one chunk
+    private static final int MIN_CHUNK = 1024;
+
+    // predecessor of a node that has none; node identifiers may be
+    // negative, but never this
+    static final int NONE = Integer.MIN_VALUE;
+
+    private PathStreamer()
+    {
+    }
+
+    /**
+     * Passes to <code>consumer</code> the path from <code>from</code>
+     * to <code>to</code> obtained by following
+     * <code>predecessor</code> backwards from <code>to</code>, where
+     * <code>predecessor</code> maps a node to <code>NONE</code> if it
+     * has no predecessor.
+     *
+     * @return   the number of nodes of the path; <code>0</code> if the
+     *           path cannot be reconstructed, in which case nothing is
+     *           passed to the consumer
+     */
+    static int stream(int from, int to, IntUnaryOperator predecessor, PathConsumer consumer)
+    throws IOException
+    {
+        int length = 1;
+        for (int node = to; node != from; length++) {
+            node = predecessor.applyAsInt(node);
+            if (node == NONE)
+                return 0;
+        }
+        int interval = Math.max(MIN_CHUNK, (int) Math.ceil(Math.sqrt(length)));
+        int segments = (length + interval - 1) / interval;
+        // checkpoints[j]: node at distance j*interval from `to'
+        int[] checkpoints = new int[segments];
+        int node = to;
+        for (int j = 0; j < segments; j++) {
+            checkpoints[j] = node;
+            if (j < segments - 1)
+                for (int k = 0; k < interval; k++)
+                    node = predecessor.applyAsInt(node);
+        }
+        int[] chunk = new int[Math.min(interval, length)];
+        for (int j = segments - 1; j >= 0; j--) {
+            int count = Math.min(interval, length - j*interval);
+            node = checkpoints[j];
+            for (int k = count - 1; k >= 0; k--) {
+                chunk[k] = node;
+                if (k > 0)
+                    node = predecessor.applyAsInt(node);
+            }
+            consumer.accept(chunk, count);
+        }
+        return length;
+    }
+}
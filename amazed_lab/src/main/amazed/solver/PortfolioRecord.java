@@ -0,0 +1,200 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of which strategy of a <code>PortfolioSolver</code> won on
+ * which class of maps.
+ * <p>
+ * The class of a map is computed from a few features that are cheap
+ * to read off the grid: whether the map is weighted, its number of
+ * cells, rounded down to a power of 4, and whether it is mostly
+ * corridors or mostly open rooms, judged on a sample of at most
+ * <code>SAMPLE</code> cells by the share of accessible cells with at
+ * least 3 accessible neighbors. Once a strategy has won at least
+ * <code>MIN_RACES</code> races in a class, and at least three
+ * quarters of them, <code>pick</code> returns it, so that later
+ * searches on maps of that class can run it alone.
+ * <p>
+ * A record is saved as a text file with one line per class and
+ * strategy: the class, the strategy, and its number of wins,
+ * separated by tabs.
+ */
+
+public class PortfolioRecord
+{
+    /**
+     * The number of races in a class before a strategy is picked.
+     */
+    public static final int MIN_RACES = 5;
+
+    // largest number of cells inspected to classify a map
+    private static final int SAMPLE = 4096;
+    private static final String COMMENT = "#";
+
+    // map class --> strategy --> number of wins
+    private final Map<String, Map<String, Integer>> wins = new TreeMap<>();
+
+    /**
+     * Creates an empty record.
+     */
+    public PortfolioRecord()
+    {
+    }
+
+    /**
+     * Returns the class of map of <code>maze</code>, such as
+     * <code>unweighted/corridors/4^9</code>.
+     *
+     * @param maze   the maze to be classified
+     * @return       the class of the maze's map
+     */
+    public static String classOf(Maze maze)
+    {
+        int rows = maze.rows(), cols = maze.cols();
+        long size = (long) rows * cols;
+        // spread the sample over the whole grid
+        long stride = Math.max(1, size / SAMPLE);
+        int open = 0, accessible = 0;
+        for (long cell = stride / 2; cell < size; cell += stride) {
+            int row = (int) (cell / cols), col = (int) (cell % cols);
+            if (!maze.isAccessible(row, col))
+                continue;
+            accessible++;
+            int neighbors = 0;
+            if (row > 0 && maze.isAccessible(row - 1, col))
+                neighbors++;
+            if (row < rows - 1 && maze.isAccessible(row + 1, col))
+                neighbors++;
+            if (col > 0 && maze.isAccessible(row, col - 1))
+                neighbors++;
+            if (col < cols - 1 && maze.isAccessible(row, col + 1))
+                neighbors++;
+            if (neighbors >= 3)
+                open++;
+        }
+        int magnitude = (63 - Long.numberOfLeadingZeros(Math.max(1, size))) / 2;
+        return (maze.isWeighted() ? "weighted" : "unweighted")
+            + (2*open >= accessible ? "/rooms" : "/corridors")
+            + "/4^" + magnitude;
+    }
+
+    /**
+     * Counts a win of strategy <code>strategy</code> on a map of
+     * class <code>mapClass</code>.
+     *
+     * @param mapClass   the class of the map, as returned by <code>classOf</code>
+     * @param strategy   the name of the strategy that won
+     */
+    public synchronized void recordWin(String mapClass, String strategy)
+    {
+        wins.computeIfAbsent(mapClass, c -> new TreeMap<>()).merge(strategy, 1, Integer::sum);
+    }
+
+    /**
+     * Returns the strategy that keeps winning on maps of class
+     * <code>mapClass</code>, if there is one.
+     *
+     * @param mapClass   the class of the map, as returned by <code>classOf</code>
+     * @return           the name of the strategy that won at least
+     *                   <code>MIN_RACES</code> races and three quarters
+     *                   of all races in the class; <code>null</code> if
+     *                   no strategy did
+     */
+    public synchronized String pick(String mapClass)
+    {
+        Map<String, Integer> counts = wins.get(mapClass);
+        if (counts == null)
+            return null;
+        int races = 0, best = 0;
+        String winner = null;
+        for (Map.Entry<String, Integer> count: counts.entrySet()) {
+            races += count.getValue();
+            if (count.getValue() > best) {
+                best = count.getValue();
+                winner = count.getKey();
+            }
+        }
+        return best >= MIN_RACES && 4*best >= 3*races ? winner : null;
+    }
+
+    /**
+     * Returns the numbers of wins of every strategy on maps of class
+     * <code>mapClass</code>.
+     *
+     * @param mapClass   the class of the map, as returned by <code>classOf</code>
+     * @return           a copy of the wins of each strategy in the class
+     */
+    public synchronized Map<String, Integer> getWins(String mapClass)
+    {
+        return new HashMap<>(wins.getOrDefault(mapClass, Map.of()));
+    }
+
+    /**
+     * Reads a record from file <code>filename</code>.
+     *
+     * @param filename   the name of the record file
+     * @return           the record in the file; an empty record if the
+     *                   file does not exist
+     * @throws IOException   if the file cannot be read, or is not a record
+     */
+    public static PortfolioRecord read(String filename)
+    throws IOException
+    {
+        PortfolioRecord record = new PortfolioRecord();
+        File file = new File(filename);
+        if (!file.exists())
+            return record;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith(COMMENT))
+                    continue;
+                String[] fields = line.split("\t");
+                try {
+                    if (fields.length != 3)
+                        throw new NumberFormatException();
+                    record.wins.computeIfAbsent(fields[0], c -> new TreeMap<>())
+                        .put(fields[1], Integer.parseInt(fields[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("not a portfolio record: " + line);
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Writes this record to file <code>filename</code>, replacing
+     * its content.
+     *
+     * @param filename   the name of the record file
+     * @throws IOException   if the file cannot be written
+     */
+    public synchronized void write(String filename)
+    throws IOException
+    {
+        File file = new File(filename), temporary = new File(filename + ".tmp");
+        try (PrintWriter out = new PrintWriter(new FileWriter(temporary))) {
+            out.println(COMMENT + " map class\tstrategy\twins");
+            for (Map.Entry<String, Map<String, Integer>> mapClass: wins.entrySet())
+                for (Map.Entry<String, Integer> count: mapClass.getValue().entrySet())
+                    out.println(mapClass.getKey() + "\t" + count.getKey() + "\t" + count.getValue());
+            if (out.checkError())
+                throw new IOException("cannot write " + temporary);
+        }
+        // readers see either the old record or the new one
+        if (!temporary.renameTo(file))
+            throw new IOException("cannot create " + file);
+    }
+}
@@ -0,0 +1,211 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>PortfolioSolver</code> implements a solver for
+ * <code>Maze</code> objects that races several other solvers on the
+ * same maze, and returns the path of the first one to find a valid
+ * path.
+ * <p>
+ * Each solver in the portfolio, added with <code>add</code>, has a
+ * name and a share of the processors: it runs in a pool of its own,
+ * whose parallelism is its share of the parallelism of the pool that
+ * runs the portfolio, and at least 1. All solvers search the same
+ * maze, which they only read. As soon as a solver returns a path
+ * that <code>maze.isValidPath</code> accepts, or finds that there is
+ * no path, the other solvers are cancelled; solvers stop running
+ * after they notice, by polling <code>isCancelled</code>, so only
+ * solvers that do so can be cancelled while they search.
+ * <p>
+ * If a <code>PortfolioRecord</code> is given, the winner is recorded
+ * under the class of the maze's map; if the record already shows a
+ * solver that keeps winning on that class, the solver runs alone
+ * without a race. Method <code>getReport</code> describes the outcome
+ * of the search.
+ */
+
+public class PortfolioSolver
+    extends RecursiveTask<List<Integer>>
+{
+    /**
+     * Creates a solver that races other solvers in
+     * <code>maze</code>, starting with an empty portfolio.
+     *
+     * @param maze   the maze to be searched
+     */
+    public PortfolioSolver(Maze maze)
+    {
+        this.maze = maze;
+    }
+
+    private final Maze maze;
+    private final List<String> names = new ArrayList<>();
+    private final List<RecursiveTask<List<Integer>>> solvers = new ArrayList<>();
+    private final List<Integer> shares = new ArrayList<>();
+    private PortfolioRecord record = null;
+    private String report = "not run";
+
+    // outcome of one solver of the portfolio
+    private static class Finish
+    {
+        final int solver;
+        final List<Integer> path;
+        final RuntimeException failure;
+
+        Finish(int solver, List<Integer> path, RuntimeException failure)
+        {
+            this.solver = solver;
+            this.path = path;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Adds solver <code>solver</code>, named <code>name</code>, to the
+     * portfolio, with <code>share</code> shares of the processors.
+     * The solver must search this solver's maze, and must not have
+     * been run.
+     *
+     * @param name     the name of the solver, as recorded in a
+     *                 <code>PortfolioRecord</code>
+     * @param solver   the solver
+     * @param share    the solver's number of shares, at least 1
+     */
+    public void add(String name, RecursiveTask<List<Integer>> solver, int share)
+    {
+        if (share < 1)
+            throw new IllegalArgumentException("share must be positive: " + share);
+        names.add(name);
+        solvers.add(solver);
+        shares.add(share);
+    }
+
+    /**
+     * Records the winner of the search into <code>record</code>, and
+     * runs a single solver if the record picks one for the maze.
+     *
+     * @param record   the record of winners, which may be shared by
+     *                 several solvers
+     */
+    public void useRecord(PortfolioRecord record)
+    {
+        this.record = record;
+    }
+
+    /**
+     * Returns which solver won the last search and how long it took,
+     * or which solver was picked by the record.
+     *
+     * @return   a one-line report of the last search
+     */
+    public String getReport()
+    {
+        return report;
+    }
+
+    /**
+     * Searches for and returns the path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze, found by the first solver of the portfolio that
+     * finds one. If such a path cannot be found (because there are
+     * no goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        if (solvers.isEmpty())
+            throw new IllegalStateException("empty portfolio");
+        String mapClass = record == null ? null : PortfolioRecord.classOf(maze);
+        String picked = record == null ? null : record.pick(mapClass);
+        if (picked != null && names.contains(picked)) {
+            int k = names.indexOf(picked);
+            report = "picked " + picked + " for " + mapClass;
+            // run the pick in this pool, with all of its processors
+            return solvers.get(k).invoke();
+        }
+        ForkJoinPool parent = getPool();
+        int parallelism = parent != null ? parent.getParallelism()
+            : ForkJoinPool.getCommonPoolParallelism();
+        int total = 0;
+        for (int share: shares)
+            total += share;
+        long start = System.nanoTime();
+        BlockingQueue<Finish> finished = new LinkedBlockingQueue<>();
+        List<ForkJoinPool> pools = new ArrayList<>();
+        try {
+            for (int k = 0; k < solvers.size(); k++) {
+                ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism * shares.get(k) / total));
+                pools.add(pool);
+                int solver = k;
+                pool.execute(() -> finished.add(run(solver)));
+            }
+            for (int running = solvers.size(); running > 0; running--) {
+                Finish finish = take(finished);
+                if (finish == null) {
+                    report = "cancelled";
+                    return null;
+                }
+                if (finish.failure != null)
+                    continue;
+                // a path that is not valid does not end the race
+                if (finish.path != null && !maze.isValidPath(finish.path))
+                    continue;
+                String winner = names.get(finish.solver);
+                report = String.format("%s won, finding %s after %d ms",
+                                       winner, finish.path != null ? "a path" : "no path",
+                                       TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (record != null) {
+                    record.recordWin(mapClass, winner);
+                    report += " on " + mapClass;
+                }
+                return finish.path;
+            }
+            report = "no solver completed";
+            return null;
+        } finally {
+            for (RecursiveTask<List<Integer>> solver: solvers)
+                solver.cancel(false);
+            for (ForkJoinPool pool: pools)
+                pool.shutdown();
+        }
+    }
+
+    // run solver k of the portfolio in the current pool
+    private Finish run(int k)
+    {
+        try {
+            return new Finish(k, solvers.get(k).invoke(), null);
+        } catch (RuntimeException e) {
+            // a solver that fails, or is cancelled, leaves the race to the others
+            return new Finish(k, null, e);
+        }
+    }
+
+    // next solver to finish, or null if this solver is cancelled first
+    private Finish take(BlockingQueue<Finish> finished)
+    {
+        try {
+            Finish finish = null;
+            while (finish == null && !isCancelled())
+                finish = finished.poll(10, TimeUnit.MILLISECONDS);
+            return finish;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
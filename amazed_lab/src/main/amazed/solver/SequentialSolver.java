@@ -2,6 +2,7 @@ package amazed.solver;
 
 import amazed.maze.Maze;
 
+import java.io.IOException;
 import java.util.concurrent.RecursiveTask;
 
 import java.util.List;
@@ -30,7 +31,25 @@ import java.util.Collections;
  * <code>predecessor</code> keeps track of the other node adjacent to
  * the visited node that has been visited just before it. Method
  * <code>pathFromTo</code> reconstructs a path by following the
- * <code>precedessor</code> relation backwards.
+ * <code>precedessor</code> relation backwards. Method
+ * <code>stream</code> runs the same search, but passes the path to a
+ * <code>PathConsumer</code> in chunks instead of returning it as a
+ * list.
+ * <p>
+ * By default, the neighbors of a node are pushed on the stack in the
+ * order of the set returned by <code>Maze.neighbors</code>. Method
+ * <code>setNeighborOrder</code> sets a <code>NeighborOrder</code>
+ * policy instead, which decides which neighbor is explored first;
+ * neighbors are then found on the grid, and ranked and sorted in a
+ * few preallocated arrays. Only that step avoids allocation: pushing
+ * the neighbors on <code>frontier</code> and recording them in
+ * <code>predecessor</code> boxes them, as with the default order.
+ * Method <code>getExpanded</code> counts the nodes explored, to
+ * compare policies.
+ * <p>
+ * The search polls <code>isCancelled</code> after every node, and
+ * stops without a path once the solver is cancelled, so that a solver
+ * that is no longer needed can be stopped while it runs.
  *
  * @author  Carlo A. Furia
  */
@@ -69,9 +88,10 @@ public class SequentialSolver
     protected Maze maze;
 
     /**
-     * Number of steps (nodes to be visited) before forking. This is
-     * set to <code>0</code> in <code>SequentialSolver</code>, which
-     * means no forking.
+     * Number of steps (nodes visited) after which a worker shares its
+     * work with other workers. This is set to <code>0</code> in
+     * <code>SequentialSolver</code>, which means no sharing: a single
+     * thread searches.
      */
     protected int forkAfter = 0;
 
@@ -97,6 +117,43 @@ public class SequentialSolver
      * starts.
      */
     protected int start;
+    /**
+     * The order in which neighbors are explored; <code>null</code> for
+     * the order of <code>Maze.neighbors</code>.
+     */
+    protected NeighborOrder order = null;
+    /**
+     * The number of nodes explored by the last search.
+     */
+    protected long expanded = 0;
+
+    // cell indexes and ranks of the neighbors of a node, when ordered
+    private final int[] cells = new int[4];
+    private final int[] ranks = new int[4];
+
+    /**
+     * Sets the order in which the search explores the neighbors of
+     * a node. It must be called before the solver runs.
+     *
+     * @param order   the policy; <code>null</code> for the order of
+     *                <code>Maze.neighbors</code>
+     */
+    public void setNeighborOrder(NeighborOrder order)
+    {
+        this.order = order;
+    }
+
+    /**
+     * Returns the number of nodes explored by the search, that is,
+     * visited and not containing a goal.
+     *
+     * @return   the number of nodes explored; <code>0</code> before the
+     *           solver runs
+     */
+    public long getExpanded()
+    {
+        return expanded;
+    }
 
     /**
      * Searches for and returns the path, as a list of node
@@ -112,25 +169,52 @@ public class SequentialSolver
     @Override
     public List<Integer> compute()
     {
-        return depthFirstSearch();
+        Integer goal = depthFirstSearch();
+        return goal == null ? null : pathFromTo(start, goal);
     }
 
-    private List<Integer> depthFirstSearch()
+    /**
+     * Searches for a path, as <code>compute</code> does, and passes
+     * it to <code>consumer</code> in chunks of node identifiers, from
+     * the start node to a goal node, as it is reconstructed. Only
+     * about the square root of the length of the path is kept in
+     * memory during reconstruction.
+     *
+     * @param consumer   the consumer of the path
+     * @return           the number of nodes of the path; <code>0</code> if
+     *                   such a path cannot be found, in which case nothing
+     *                   is passed to the consumer
+     * @throws IOException   if the consumer fails
+     */
+    public int stream(PathConsumer consumer)
+    throws IOException
+    {
+        Integer goal = depthFirstSearch();
+        if (goal == null)
+            return 0;
+        return PathStreamer.stream(start, goal,
+                                   node -> predecessor.getOrDefault(node, PathStreamer.NONE),
+                                   consumer);
+    }
+
+    // identifier of the goal reached, or null
+    private Integer depthFirstSearch()
     {
         // one player active on the maze at start
         int player = maze.newPlayer(start);
         // start with start node
         frontier.push(start);
-        // as long as not all nodes have been processed
-        while (!frontier.empty()) {
+        // as long as not all nodes have been processed, and nobody
+        // cancelled the search
+        while (!frontier.empty() && !isCancelled()) {
             // get the new node to process
             int current = frontier.pop();
             // if current node has a goal
             if (maze.hasGoal(current)) {
                 // move player to goal
                 maze.move(player, current);
-                // search finished: reconstruct and return path
-                return pathFromTo(start, current);
+                // search finished: return goal, to reconstruct path
+                return current;
             }
             // if current node has not been visited yet
             if (!visited.contains(current)) {
@@ -138,6 +222,11 @@ public class SequentialSolver
                 maze.move(player, current);
                 // mark node as visited
                 visited.add(current);
+                expanded++;
+                if (order != null) {
+                    pushOrdered(current);
+                    continue;
+                }
                 // for every node nb adjacent to current
                 for (int nb: maze.neighbors(current)) {
                     // add nb to the nodes to be processed
@@ -149,10 +238,60 @@ public class SequentialSolver
                 }
             }
         }
-        // all nodes explored, no goal found
+        // all nodes explored, or search cancelled: no goal found
         return null;
     }
 
+    // push the neighbors of current so that the first in order is
+    // popped first; ranking and sorting use the arrays cells and
+    // ranks, but the stack and the map still box every neighbor
+    private void pushOrdered(int current)
+    {
+        int cols = maze.cols(), index = maze.indexOf(current);
+        int row = index / cols, col = index % cols;
+        int count = 0;
+        if (maze.isAccessible(row - 1, col))
+            count = addRanked(cells, ranks, count, index - cols, order.rank(row - 1, col));
+        if (maze.isAccessible(row + 1, col))
+            count = addRanked(cells, ranks, count, index + cols, order.rank(row + 1, col));
+        if (maze.isAccessible(row, col - 1))
+            count = addRanked(cells, ranks, count, index - 1, order.rank(row, col - 1));
+        if (maze.isAccessible(row, col + 1))
+            count = addRanked(cells, ranks, count, index + 1, order.rank(row, col + 1));
+        // the highest rank goes to the bottom of the stack
+        for (int k = count - 1; k >= 0; k--) {
+            int nb = maze.idAt(cells[k] / cols, cells[k] % cols);
+            frontier.push(nb);
+            if (!visited.contains(nb))
+                predecessor.put(nb, current);
+        }
+    }
+
+    /**
+     * Inserts cell <code>cell</code>, of rank <code>rank</code>, into
+     * the first <code>count</code> entries of <code>cells</code> and
+     * <code>ranks</code>, which are sorted by increasing rank, after
+     * all cells of the same rank.
+     *
+     * @param cells   the sorted cells, with room for one more
+     * @param ranks   the ranks of <code>cells</code>
+     * @param count   the number of cells
+     * @param cell    the cell to insert
+     * @param rank    the rank of <code>cell</code>
+     * @return        the new number of cells, <code>count + 1</code>
+     */
+    static int addRanked(int[] cells, int[] ranks, int count, int cell, int rank)
+    {
+        int k = count;
+        for (; k > 0 && ranks[k - 1] > rank; k--) {
+            cells[k] = cells[k - 1];
+            ranks[k] = ranks[k - 1];
+        }
+        cells[k] = cell;
+        ranks[k] = rank;
+        return count + 1;
+    }
+
     /**
      * Returns the connected path, as a list of node identifiers, that
      * goes from node <code>from</code> to node <code>to</code>
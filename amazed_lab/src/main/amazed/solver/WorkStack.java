@@ -0,0 +1,80 @@
+package amazed.solver;
+
+import java.util.Arrays;
+
+/**
+ * Growable stack of primitive <code>long</code> entries owned by one
+ * worker, from which other workers can steal.
+ * <p>
+ * The owner pushes and pops at the top; a thief takes the bottom half
+ * of the stack, that is the oldest entries, which in a depth-first
+ * search are nodes closest to the root and thus likely to lead to the
+ * largest unexplored regions. Every operation holds the stack's
+ * monitor, which only the owner takes except during a steal, so in
+ * the common case locking is uncontended.
+ * <p>
+ * The owner can keep its entries to itself by marking the stack as
+ * not shared; thieves skip such stacks.
+ */
+
+final class WorkStack
+{
+    private long[] entries = new long[64];
+    // read without locking by thieves looking for a victim
+    private volatile int size = 0;
+    // may thieves take entries? set only by the owner
+    private volatile boolean shared = true;
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isShared()
+    {
+        return shared;
+    }
+
+    void setShared(boolean shared)
+    {
+        this.shared = shared;
+    }
+
+    synchronized void push(long entry)
+    {
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, 2*entries.length);
+        entries[size] = entry;
+        size = size + 1;
+    }
+
+    // the top entry, removed; or -1 if the stack is empty
+    synchronized long pop()
+    {
+        if (size == 0)
+            return -1;
+        size = size - 1;
+        return entries[size];
+    }
+
+    // remove the bottom half (at least one entry, if any) and push it
+    // onto `thief'; return the number of entries moved
+    int stealHalfInto(WorkStack thief)
+    {
+        long[] stolen;
+        synchronized (this) {
+            int count = (size + 1) / 2;
+            if (count == 0)
+                return 0;
+            stolen = Arrays.copyOf(entries, count);
+            System.arraycopy(entries, count, entries, 0, size - count);
+            size = size - count;
+        }
+        // never hold two monitors at once
+        synchronized (thief) {
+            for (long entry: stolen)
+                thief.push(entry);
+        }
+        return stolen.length;
+    }
+}